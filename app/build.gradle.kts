@@ -29,6 +29,14 @@ android {
         sourceCompatibility = JavaVersion.VERSION_11
         targetCompatibility = JavaVersion.VERSION_11
     }
+    testOptions {
+        // Test JVM dùng android.jar rỗng: để android.util.Log trả về giá trị mặc định thay vì ném lỗi
+        unitTests.isReturnDefaultValues = true
+    }
+    androidResources {
+        // Giữ provinces.bin không nén trong APK để có thể memory-map trực tiếp
+        noCompress += "bin"
+    }
     packaging {
         resources {
             pickFirsts.add("META-INF/INDEX.LIST")
@@ -37,6 +45,99 @@ android {
     }
 }
 
+/**
+ * Biên dịch provinces.json thành provinces.bin: bảng tỉnh, bảng vòng (ring), tọa độ int32 micro-độ.
+ * Định dạng (little-endian, mọi trường là int32):
+ *   header:  magic 'VNPB', version, provinceCount, ringCount, pointCount, nameBytes
+ *   tỉnh:    nameOffset, nameLength, firstRing, ringCount, minLat, minLon, maxLat, maxLon
+ *   vòng:    firstPoint, pointCount, minLat, minLon, maxLat, maxLon
+ *   tọa độ:  lat, lon (micro-độ) cho từng điểm
+ *   tên:     UTF-8, đệm tới bội số của 4 byte
+ */
+abstract class CompileProvinceBoundariesTask : DefaultTask() {
+
+    @get:InputFile
+    @get:PathSensitive(PathSensitivity.RELATIVE)
+    abstract val sourceJson: RegularFileProperty
+
+    @get:OutputDirectory
+    abstract val outputDir: DirectoryProperty
+
+    @TaskAction
+    fun compile() {
+        @Suppress("UNCHECKED_CAST")
+        val provinces = groovy.json.JsonSlurper().parse(sourceJson.get().asFile, "UTF-8") as List<Map<String, Any>>
+
+        val provinceTable = mutableListOf<IntArray>()
+        val ringTable = mutableListOf<IntArray>()
+        val coordinates = mutableListOf<Int>()
+        val names = java.io.ByteArrayOutputStream()
+
+        for (province in provinces) {
+            val nameBytes = (province["tỉnh"] as String).toByteArray(Charsets.UTF_8)
+            val firstRing = ringTable.size
+            var bounds = intArrayOf(Int.MAX_VALUE, Int.MAX_VALUE, Int.MIN_VALUE, Int.MIN_VALUE)
+            @Suppress("UNCHECKED_CAST")
+            for (ring in province["tọa độ"] as List<List<List<Number>>>) {
+                val firstPoint = coordinates.size / 2
+                val ringBounds = intArrayOf(Int.MAX_VALUE, Int.MAX_VALUE, Int.MIN_VALUE, Int.MIN_VALUE)
+                for (point in ring) {
+                    // GeoJSON: [kinh độ, vĩ độ]
+                    val lat = toMicroDegrees(point[1])
+                    val lon = toMicroDegrees(point[0])
+                    coordinates.add(lat)
+                    coordinates.add(lon)
+                    ringBounds[0] = minOf(ringBounds[0], lat)
+                    ringBounds[1] = minOf(ringBounds[1], lon)
+                    ringBounds[2] = maxOf(ringBounds[2], lat)
+                    ringBounds[3] = maxOf(ringBounds[3], lon)
+                }
+                ringTable.add(intArrayOf(firstPoint, coordinates.size / 2 - firstPoint) + ringBounds)
+                bounds = intArrayOf(
+                    minOf(bounds[0], ringBounds[0]), minOf(bounds[1], ringBounds[1]),
+                    maxOf(bounds[2], ringBounds[2]), maxOf(bounds[3], ringBounds[3])
+                )
+            }
+            provinceTable.add(intArrayOf(names.size(), nameBytes.size, firstRing, ringTable.size - firstRing) + bounds)
+            names.write(nameBytes)
+        }
+        while (names.size() % 4 != 0) {
+            names.write(0)
+        }
+
+        val header = intArrayOf(0x4250_4E56, 1, provinceTable.size, ringTable.size, coordinates.size / 2, names.size())
+        val ints = header.size + provinceTable.sumOf { it.size } + ringTable.sumOf { it.size } + coordinates.size
+        val buffer = java.nio.ByteBuffer.allocate(ints * 4 + names.size()).order(java.nio.ByteOrder.LITTLE_ENDIAN)
+        header.forEach { buffer.putInt(it) }
+        provinceTable.forEach { row -> row.forEach { buffer.putInt(it) } }
+        ringTable.forEach { row -> row.forEach { buffer.putInt(it) } }
+        coordinates.forEach { buffer.putInt(it) }
+        buffer.put(names.toByteArray())
+
+        val output = outputDir.get().file("provinces.bin").asFile
+        output.parentFile.mkdirs()
+        output.writeBytes(buffer.array())
+        logger.info("Compiled ${provinceTable.size} provinces, ${coordinates.size / 2} points into ${output.length()} bytes")
+    }
+
+    private fun toMicroDegrees(value: Number): Int =
+        java.math.BigDecimal(value.toString()).movePointRight(6)
+            .setScale(0, java.math.RoundingMode.HALF_UP).intValueExact()
+}
+
+val compileProvinceBoundaries = tasks.register<CompileProvinceBoundariesTask>("compileProvinceBoundaries") {
+    sourceJson.set(layout.projectDirectory.file("src/main/assets/provinces.json"))
+}
+
+androidComponents {
+    onVariants { variant ->
+        variant.sources.assets?.addGeneratedSourceDirectory(
+            compileProvinceBoundaries,
+            CompileProvinceBoundariesTask::outputDir
+        )
+    }
+}
+
 dependencies {
 
     implementation(libs.appcompat)
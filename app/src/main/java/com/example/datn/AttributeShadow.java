@@ -0,0 +1,142 @@
+package com.example.datn;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Bản sao phía thiết bị của các client attribute đã được broker xác nhận.
+ *
+ * put() chỉ ghi nhận giá trị mong muốn; writeChanges() ghi các khóa có giá trị khác giá trị đã xác nhận
+ * (hoặc lệch quá ngưỡng với khóa số có ngưỡng) vào một object JSON, nên nhiều thay đổi gộp thành một
+ * message. Giá trị đang gửi chỉ trở thành giá trị đã xác nhận khi onAcked(seq) được gọi.
+ * Không an toàn khi dùng từ nhiều luồng cùng lúc; MqttHandler khóa bằng chính đối tượng này.
+ */
+public class AttributeShadow {
+
+    private static class Entry {
+        Object desired;
+        boolean hasDesired = false;
+        Object acked;
+        boolean hasAcked = false;
+        double threshold = 0;
+        // Message đang mang giá trị sentValue, -1 nếu không có
+        long sentSeq = -1;
+        Object sentValue;
+        boolean writing = false;
+    }
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    /**
+     * Khóa số chỉ được gửi lại khi lệch khỏi giá trị đã xác nhận ít nhất threshold (vd. pin ±2%).
+     */
+    public void setThreshold(String key, double threshold) {
+        entry(key).threshold = threshold;
+    }
+
+    /**
+     * @param value Boolean, Number, String hoặc null
+     */
+    public void put(String key, Object value) {
+        Entry entry = entry(key);
+        entry.desired = value;
+        entry.hasDesired = true;
+    }
+
+    public boolean hasChanges() {
+        for (Entry entry : entries.values()) {
+            if (isDirty(entry)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Ghi các cặp name/value của khóa đã thay đổi vào object đang mở của writer.
+     *
+     * @return số khóa đã ghi; gọi markSent() với seq của message mang chúng
+     */
+    public int writeChanges(JsonWriter writer) {
+        int written = 0;
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            Entry entry = e.getValue();
+            entry.writing = isDirty(entry);
+            if (!entry.writing) {
+                continue;
+            }
+            writer.name(e.getKey());
+            Object value = entry.desired;
+            if (value == null) {
+                writer.nullValue();
+            } else if (value instanceof Boolean) {
+                writer.value((Boolean) value);
+            } else if (value instanceof Double || value instanceof Float) {
+                writer.value(((Number) value).doubleValue(), 6);
+            } else if (value instanceof Number) {
+                writer.value(((Number) value).longValue());
+            } else {
+                writer.value(value.toString());
+            }
+            written++;
+        }
+        return written;
+    }
+
+    /**
+     * @param seq số thứ tự của message trong hàng đợi, hoặc -1 nếu message không được theo dõi
+     *            (khi đó không biết broker có nhận hay không nên các khóa vẫn được coi là đã thay đổi)
+     */
+    public void markSent(long seq) {
+        for (Entry entry : entries.values()) {
+            if (!entry.writing) {
+                continue;
+            }
+            entry.writing = false;
+            if (seq >= 0) {
+                entry.sentSeq = seq;
+                entry.sentValue = entry.desired;
+            }
+        }
+    }
+
+    public void onAcked(long seq) {
+        for (Entry entry : entries.values()) {
+            if (entry.sentSeq == seq) {
+                entry.acked = entry.sentValue;
+                entry.hasAcked = true;
+                entry.sentSeq = -1;
+            }
+        }
+    }
+
+    private Entry entry(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(key, entry);
+        }
+        return entry;
+    }
+
+    // So với giá trị đang gửi nếu có, nếu không thì với giá trị đã xác nhận
+    private static boolean isDirty(Entry entry) {
+        if (!entry.hasDesired) {
+            return false;
+        }
+        Object baseline;
+        if (entry.sentSeq >= 0) {
+            baseline = entry.sentValue;
+        } else if (entry.hasAcked) {
+            baseline = entry.acked;
+        } else {
+            return true;
+        }
+        if (entry.threshold > 0 && entry.desired instanceof Number && baseline instanceof Number) {
+            double delta = ((Number) entry.desired).doubleValue() - ((Number) baseline).doubleValue();
+            return Math.abs(delta) >= entry.threshold;
+        }
+        return !Objects.equals(baseline, entry.desired);
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.datn;
+
+/**
+ * Rút gọn vòng ranh giới bằng thuật toán Douglas-Peucker trên mảng tọa độ micro-độ.
+ * Khoảng cách được tính bằng mét theo phép chiếu phẳng cục bộ tại vĩ độ trung bình của vòng.
+ */
+public class BoundarySimplifier {
+
+    private BoundarySimplifier() {
+    }
+
+    /**
+     * @param coordinates     mảng tọa độ micro-độ (lat, lon xen kẽ)
+     * @param first           chỉ số điểm đầu của vòng
+     * @param count           số điểm của vòng
+     * @param toleranceMeters điểm cách đoạn rút gọn ít hơn mức này thì bị bỏ
+     * @param keep            đánh dấu điểm được giữ, theo chỉ số trong vòng (độ dài ≥ count)
+     * @return số điểm được giữ
+     */
+    public static int simplify(int[] coordinates, int first, int count, double toleranceMeters, boolean[] keep) {
+        if (count <= 3 || toleranceMeters <= 0) {
+            for (int i = 0; i < count; i++) {
+                keep[i] = true;
+            }
+            return count;
+        }
+        for (int i = 0; i < count; i++) {
+            keep[i] = false;
+        }
+        double metersPerMicroLat = ProvinceBoundaryData.EARTH_RADIUS_METERS * Math.PI / 180 / ProvinceBoundaryData.MICRO_DEGREES;
+        double midLat = (coordinates[first * 2] + coordinates[(first + count / 2) * 2]) / 2.0 / ProvinceBoundaryData.MICRO_DEGREES;
+        double metersPerMicroLon = metersPerMicroLat * Math.cos(Math.toRadians(midLat));
+        double toleranceSq = toleranceMeters * toleranceMeters;
+
+        // Vòng khép kín: chia đôi tại điểm xa điểm đầu nhất để hai nửa đều có đoạn cơ sở khác rỗng
+        int far = first;
+        double farDistance = -1;
+        for (int i = first + 1; i < first + count; i++) {
+            double dy = (coordinates[i * 2] - coordinates[first * 2]) * metersPerMicroLat;
+            double dx = (coordinates[i * 2 + 1] - coordinates[first * 2 + 1]) * metersPerMicroLon;
+            if (dx * dx + dy * dy > farDistance) {
+                farDistance = dx * dx + dy * dy;
+                far = i;
+            }
+        }
+        keep[0] = true;
+        keep[far - first] = true;
+        keep[count - 1] = true;
+
+        // Ngăn xếp các đoạn [from, to] cần xét, thay cho đệ quy
+        int[] stack = new int[count * 2 + 4];
+        int top = 0;
+        stack[top++] = first;
+        stack[top++] = far;
+        stack[top++] = far;
+        stack[top++] = first + count - 1;
+        while (top > 0) {
+            int to = stack[--top];
+            int from = stack[--top];
+            double ay = coordinates[from * 2] * metersPerMicroLat;
+            double ax = coordinates[from * 2 + 1] * metersPerMicroLon;
+            double dy = coordinates[to * 2] * metersPerMicroLat - ay;
+            double dx = coordinates[to * 2 + 1] * metersPerMicroLon - ax;
+            double lengthSq = dx * dx + dy * dy;
+            int worst = -1;
+            double worstDistance = toleranceSq;
+            for (int i = from + 1; i < to; i++) {
+                double py = coordinates[i * 2] * metersPerMicroLat - ay;
+                double px = coordinates[i * 2 + 1] * metersPerMicroLon - ax;
+                double t = lengthSq > 0 ? Math.max(0, Math.min(1, (px * dx + py * dy) / lengthSq)) : 0;
+                double ex = px - t * dx;
+                double ey = py - t * dy;
+                double distance = ex * ex + ey * ey;
+                if (distance > worstDistance) {
+                    worstDistance = distance;
+                    worst = i;
+                }
+            }
+            if (worst >= 0) {
+                keep[worst - first] = true;
+                stack[top++] = from;
+                stack[top++] = worst;
+                stack[top++] = worst;
+                stack[top++] = to;
+            }
+        }
+
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (keep[i]) {
+                kept++;
+            }
+        }
+        return kept;
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.datn;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Kho ranh giới tỉnh dùng chung cho toàn tiến trình.
+ * Ranh giới chỉ được nạp một lần (từ provinces.bin, dự phòng bằng provinces.json), trên luồng nền;
+ * sau đó tra cứu theo tên tỉnh là O(1) và dữ liệu nằm trong vài mảng nguyên thủy.
+ */
+public class BoundaryStore {
+
+    private static final String TAG = "BoundaryStore";
+    private static volatile BoundaryStore instance;
+
+    private final FutureTask<ProvinceBoundaryData> loadTask;
+    private final AtomicBoolean loadStarted = new AtomicBoolean(false);
+    private volatile ProvinceCellCache cellCache;
+
+    private BoundaryStore(Context appContext) {
+        loadTask = new FutureTask<>(() -> {
+            long start = System.currentTimeMillis();
+            ProvinceBoundaryData data;
+            try {
+                data = ProvinceBoundaryData.load(appContext);
+            } catch (IOException e) {
+                Log.e(TAG, "Cannot load " + ProvinceBoundaryData.ASSET_NAME + ", parsing JSON: " + e.getMessage());
+                data = ProvinceBoundaryData.fromBoundaries(GetBoundary.getProvinceBoundaries(appContext));
+            }
+            cellCache = new ProvinceCellCache(data, new ProvinceLocator(data));
+            Log.d(TAG, "Loaded " + data.getProvinceCount() + " provinces in " + (System.currentTimeMillis() - start) + " ms");
+            return data;
+        });
+    }
+
+    public static BoundaryStore getInstance(Context context) {
+        if (instance == null) {
+            synchronized (BoundaryStore.class) {
+                if (instance == null) {
+                    instance = new BoundaryStore(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Bắt đầu nạp ranh giới trên luồng nền nếu chưa nạp. Nên gọi sớm (VD: trong onCreate).
+     */
+    public void preload() {
+        if (loadStarted.compareAndSet(false, true)) {
+            Thread loader = new Thread(loadTask, "boundary-loader");
+            loader.setDaemon(true);
+            loader.start();
+        }
+    }
+
+    /**
+     * @return ranh giới của tỉnh, hoặc danh sách rỗng nếu không có.
+     * Danh sách LatLng được dựng mới mỗi lần gọi nên chỉ dùng cho đường ít gọi.
+     */
+    public List<LatLng> getBoundary(String provinceName) {
+        return getBoundary(provinceName, 0);
+    }
+
+    /**
+     * @param level mức chi tiết, chỉ số trong ProvinceBoundaryData.DETAIL_LEVEL_TOLERANCES (0 = đầy đủ)
+     * @return ranh giới đã rút gọn của tỉnh, hoặc danh sách rỗng nếu không có
+     */
+    public List<LatLng> getBoundary(String provinceName, int level) {
+        ProvinceBoundaryData data = getData();
+        int province = data != null ? data.indexOf(provinceName) : -1;
+        return province >= 0 ? data.toLatLngList(province, level) : Collections.emptyList();
+    }
+
+    /**
+     * @return true nếu điểm nằm trong tỉnh; false nếu không nằm trong hoặc không biết tỉnh
+     */
+    public boolean contains(String provinceName, double lat, double lon) {
+        ProvinceBoundaryData data = getData();
+        int province = data != null ? data.indexOf(provinceName) : -1;
+        return province >= 0 && cellCache.contains(province, lat, lon);
+    }
+
+    /**
+     * Tìm tỉnh chứa điểm trong số tất cả các tỉnh, qua bộ đệm ô và chỉ mục lưới.
+     *
+     * @return tên tỉnh, hoặc null nếu điểm không thuộc tỉnh nào
+     */
+    public String findProvince(double lat, double lon) {
+        ProvinceBoundaryData data = getData();
+        int province = data != null ? cellCache.locate(lat, lon) : -1;
+        return province >= 0 ? data.getName(province) : null;
+    }
+
+    /**
+     * Chờ nạp xong nếu được gọi trước khi luồng nền hoàn tất.
+     *
+     * @return dữ liệu ranh giới, hoặc null nếu nạp thất bại
+     */
+    public ProvinceBoundaryData getData() {
+        preload();
+        try {
+            return loadTask.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Failed to load province boundaries: " + e.getCause());
+            return null;
+        }
+    }
+
+    /**
+     * @return bộ đệm ô, hoặc null nếu ranh giới chưa nạp xong
+     */
+    public ProvinceCellCache getCellCache() {
+        return cellCache;
+    }
+
+    public boolean isLoaded() {
+        return loadTask.isDone();
+    }
+}
@@ -0,0 +1,9 @@
+package com.example.datn;
+
+public enum ConnectionState {
+    DISCONNECTED,
+    WAITING_FOR_NETWORK,
+    BACKOFF,
+    CONNECTING,
+    CONNECTED
+}
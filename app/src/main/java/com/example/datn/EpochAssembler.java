@@ -0,0 +1,207 @@
+package com.example.datn;
+
+/**
+ * Gộp các câu RMC/GGA/GNS/VTG của cùng một epoch đo (cùng thời gian UTC) thành đúng một GnssFix.
+ *
+ * Thứ tự ưu tiên khi nhiều câu cùng mang một giá trị:
+ * - Vị trí, tốc độ, hướng: RMC trước, sau đó GGA/GNS (vị trí) và VTG (tốc độ, hướng).
+ * - Chất lượng định vị, số vệ tinh, HDOP: GGA trước, sau đó GNS.
+ *
+ * Epoch được phát ra khi đã nhận đủ các loại câu từng xuất hiện trong epoch trước,
+ * hoặc muộn nhất khi câu đầu tiên của epoch kế tiếp đến.
+ */
+public class EpochAssembler {
+
+    public interface Listener {
+        void onFix(GnssFix fix);
+    }
+
+    static final int SENTENCE_RMC = 1;
+    static final int SENTENCE_GGA = 1 << 1;
+    static final int SENTENCE_GNS = 1 << 2;
+    static final int SENTENCE_VTG = 1 << 3;
+
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    private final Listener listener;
+
+    private int epochTime = -1;
+    private int sentenceMask = 0;
+    private int expectedMask = 0;
+    private boolean emitted = false;
+    private long lastEpochDay = -1;
+    private int lastEpochTime = -1;
+
+    private double lat;
+    private double lon;
+    private int positionMask;
+    private float speedKnots;
+    private float course;
+    private int motionMask;
+    private int fixQuality;
+    private int satellites;
+    private float hdop;
+    private int qualityMask;
+    private boolean rmcValid;
+    private boolean gnsValid;
+    private long epochDay = -1;
+
+    public EpochAssembler(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void onRmc(int utcTime, long epochDay, boolean valid, double lat, double lon,
+                      float speedKnots, float course) {
+        if (!beginSentence(utcTime, SENTENCE_RMC)) {
+            return;
+        }
+        rmcValid = valid;
+        if (epochDay >= 0) {
+            this.epochDay = epochDay;
+        }
+        setPosition(SENTENCE_RMC, lat, lon);
+        setMotion(SENTENCE_RMC, speedKnots, course);
+        endSentence();
+    }
+
+    public void onGga(int utcTime, double lat, double lon, int fixQuality, int satellites, float hdop) {
+        if (!beginSentence(utcTime, SENTENCE_GGA)) {
+            return;
+        }
+        setPosition(SENTENCE_GGA, lat, lon);
+        setQuality(SENTENCE_GGA, fixQuality, satellites, hdop);
+        endSentence();
+    }
+
+    public void onGns(int utcTime, double lat, double lon, boolean valid, int satellites, float hdop) {
+        if (!beginSentence(utcTime, SENTENCE_GNS)) {
+            return;
+        }
+        gnsValid = valid;
+        setPosition(SENTENCE_GNS, lat, lon);
+        setQuality(SENTENCE_GNS, valid ? 1 : 0, satellites, hdop);
+        endSentence();
+    }
+
+    /**
+     * VTG không mang thời gian nên được gắn vào epoch đang thu thập.
+     */
+    public void onVtg(float speedKnots, float course) {
+        if (epochTime < 0 || emitted) {
+            return;
+        }
+        sentenceMask |= SENTENCE_VTG;
+        setMotion(SENTENCE_VTG, speedKnots, course);
+        endSentence();
+    }
+
+    /**
+     * Phát epoch đang thu thập dở (nếu có), VD: khi dừng đọc UART.
+     */
+    public void flush() {
+        if (epochTime >= 0 && !emitted) {
+            emit();
+        }
+    }
+
+    private boolean beginSentence(int utcTime, int sentence) {
+        if (utcTime < 0) {
+            return false;
+        }
+        if (utcTime != epochTime) {
+            if (epochTime >= 0 && !emitted) {
+                // Epoch trước kết thúc mà chưa đủ câu: học lại tập câu thực tế của module
+                expectedMask = sentenceMask;
+                emit();
+            }
+            startEpoch(utcTime);
+        } else if (emitted) {
+            // Câu đến sau khi epoch đã phát: lần sau chờ cả loại câu này
+            expectedMask |= sentence;
+            return false;
+        }
+        sentenceMask |= sentence;
+        return true;
+    }
+
+    private void endSentence() {
+        if (expectedMask != 0 && (sentenceMask & expectedMask) == expectedMask) {
+            emit();
+        }
+    }
+
+    private void startEpoch(int utcTime) {
+        epochTime = utcTime;
+        sentenceMask = 0;
+        emitted = false;
+        positionMask = 0;
+        motionMask = 0;
+        qualityMask = 0;
+        lat = 0;
+        lon = 0;
+        speedKnots = 0;
+        course = 0;
+        fixQuality = 0;
+        satellites = 0;
+        hdop = 0;
+        rmcValid = false;
+        gnsValid = false;
+        epochDay = -1;
+    }
+
+    private void setPosition(int source, double lat, double lon) {
+        if (positionMask == 0 || source == SENTENCE_RMC) {
+            this.lat = lat;
+            this.lon = lon;
+        }
+        positionMask |= source;
+    }
+
+    private void setMotion(int source, float speedKnots, float course) {
+        if (motionMask == 0 || source == SENTENCE_RMC) {
+            this.speedKnots = speedKnots;
+            this.course = course;
+        }
+        motionMask |= source;
+    }
+
+    private void setQuality(int source, int fixQuality, int satellites, float hdop) {
+        if (qualityMask == 0 || source == SENTENCE_GGA) {
+            this.fixQuality = fixQuality;
+            this.satellites = satellites;
+            this.hdop = hdop;
+        }
+        qualityMask |= source;
+    }
+
+    private void emit() {
+        emitted = true;
+        if (positionMask == 0) {
+            return;
+        }
+        boolean hasGpsSignal;
+        if ((sentenceMask & SENTENCE_RMC) != 0) {
+            hasGpsSignal = rmcValid;
+        } else if ((qualityMask & SENTENCE_GGA) != 0) {
+            hasGpsSignal = fixQuality > 0;
+        } else {
+            hasGpsSignal = gnsValid;
+        }
+        listener.onFix(new GnssFix(lat, lon, speedKnots, course, fixQuality, satellites, hdop,
+                epochTime, resolveUtcMillis(), hasGpsSignal));
+    }
+
+    private long resolveUtcMillis() {
+        long day = epochDay;
+        if (day < 0 && lastEpochDay >= 0) {
+            // Epoch không có RMC: dùng ngày gần nhất, tăng một ngày khi thời gian quay vòng qua nửa đêm
+            day = epochTime < lastEpochTime ? lastEpochDay + 1 : lastEpochDay;
+        }
+        if (day < 0) {
+            return 0;
+        }
+        lastEpochDay = day;
+        lastEpochTime = epochTime;
+        return day * MILLIS_PER_DAY + epochTime;
+    }
+}
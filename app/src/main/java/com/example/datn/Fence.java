@@ -0,0 +1,129 @@
+package com.example.datn;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Một vùng geofence do server gửi xuống: hình tròn (tâm + bán kính) hoặc đa giác.
+ *
+ * Định dạng JSON trong shared attribute "fences":
+ *   {"id": "kho-1", "type": "circle", "lat": 21.03, "lon": 105.85, "radius": 200}
+ *   {"id": "vung-cam", "type": "polygon", "points": [[lat, lon], [lat, lon], ...]}
+ */
+public class Fence {
+
+    public static final int TYPE_CIRCLE = 0;
+    public static final int TYPE_POLYGON = 1;
+
+    public final String id;
+    public final int type;
+
+    // Hộp bao, micro-độ
+    final int minLat;
+    final int minLon;
+    final int maxLat;
+    final int maxLon;
+
+    private final double centerLat;
+    private final double centerLon;
+    private final double radiusMeters;
+    private final int[] coordinates;
+    private final PolygonSlabIndex polygonIndex;
+
+    private Fence(String id, int type, int minLat, int minLon, int maxLat, int maxLon,
+                  double centerLat, double centerLon, double radiusMeters, int[] coordinates) {
+        this.id = id;
+        this.type = type;
+        this.minLat = minLat;
+        this.minLon = minLon;
+        this.maxLat = maxLat;
+        this.maxLon = maxLon;
+        this.centerLat = centerLat;
+        this.centerLon = centerLon;
+        this.radiusMeters = radiusMeters;
+        this.coordinates = coordinates;
+        this.polygonIndex = coordinates != null ? new PolygonSlabIndex(coordinates, 0, coordinates.length / 2) : null;
+    }
+
+    public static Fence circle(String id, double lat, double lon, double radiusMeters) {
+        double metersPerDegree = ProvinceBoundaryData.EARTH_RADIUS_METERS * Math.PI / 180;
+        double dLat = radiusMeters / metersPerDegree;
+        double dLon = dLat / Math.max(Math.cos(Math.toRadians(lat)), 1e-6);
+        return new Fence(id, TYPE_CIRCLE,
+                (int) Math.floor((lat - dLat) * ProvinceBoundaryData.MICRO_DEGREES),
+                (int) Math.floor((lon - dLon) * ProvinceBoundaryData.MICRO_DEGREES),
+                (int) Math.ceil((lat + dLat) * ProvinceBoundaryData.MICRO_DEGREES),
+                (int) Math.ceil((lon + dLon) * ProvinceBoundaryData.MICRO_DEGREES),
+                lat, lon, radiusMeters, null);
+    }
+
+    /**
+     * @param coordinates tọa độ micro-độ các đỉnh, lat, lon xen kẽ
+     */
+    public static Fence polygon(String id, int[] coordinates) {
+        int minLat = Integer.MAX_VALUE, minLon = Integer.MAX_VALUE;
+        int maxLat = Integer.MIN_VALUE, maxLon = Integer.MIN_VALUE;
+        for (int i = 0; i < coordinates.length; i += 2) {
+            minLat = Math.min(minLat, coordinates[i]);
+            minLon = Math.min(minLon, coordinates[i + 1]);
+            maxLat = Math.max(maxLat, coordinates[i]);
+            maxLon = Math.max(maxLon, coordinates[i + 1]);
+        }
+        return new Fence(id, TYPE_POLYGON, minLat, minLon, maxLat, maxLon, 0, 0, 0, coordinates);
+    }
+
+    public static Fence fromJson(JSONObject json) throws JSONException {
+        String id = json.getString("id");
+        String type = json.getString("type");
+        if (type.equals("circle")) {
+            return circle(id, json.getDouble("lat"), json.getDouble("lon"), json.getDouble("radius"));
+        }
+        if (type.equals("polygon")) {
+            JSONArray points = json.getJSONArray("points");
+            if (points.length() < 3) {
+                throw new JSONException("Polygon fence " + id + " needs at least 3 points");
+            }
+            int[] coordinates = new int[points.length() * 2];
+            for (int i = 0; i < points.length(); i++) {
+                JSONArray point = points.getJSONArray(i);
+                coordinates[i * 2] = (int) Math.round(point.getDouble(0) * ProvinceBoundaryData.MICRO_DEGREES);
+                coordinates[i * 2 + 1] = (int) Math.round(point.getDouble(1) * ProvinceBoundaryData.MICRO_DEGREES);
+            }
+            return polygon(id, coordinates);
+        }
+        throw new JSONException("Unknown fence type: " + type);
+    }
+
+    /**
+     * Kiểm tra điểm có nằm trong vùng không. Không cấp phát.
+     */
+    public boolean contains(double lat, double lon) {
+        double microLat = lat * ProvinceBoundaryData.MICRO_DEGREES;
+        double microLon = lon * ProvinceBoundaryData.MICRO_DEGREES;
+        if (microLat < minLat || microLat > maxLat || microLon < minLon || microLon > maxLon) {
+            return false;
+        }
+        if (type == TYPE_POLYGON) {
+            return polygonIndex.contains(lat, lon);
+        }
+        return distanceToCenter(lat, lon) <= radiusMeters;
+    }
+
+    /**
+     * Khoảng cách (mét) từ điểm tới đường biên của vùng, ở cả phía trong lẫn phía ngoài.
+     */
+    public double distanceToBorder(double lat, double lon) {
+        if (type == TYPE_POLYGON) {
+            return Math.sqrt(ProvinceBoundaryData.ringDistanceSquared(coordinates, 0, coordinates.length / 2, lat, lon));
+        }
+        return Math.abs(distanceToCenter(lat, lon) - radiusMeters);
+    }
+
+    private double distanceToCenter(double lat, double lon) {
+        double metersPerDegree = ProvinceBoundaryData.EARTH_RADIUS_METERS * Math.PI / 180;
+        double dy = (lat - centerLat) * metersPerDegree;
+        double dx = (lon - centerLon) * metersPerDegree * Math.cos(Math.toRadians(centerLat));
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+}
@@ -0,0 +1,214 @@
+package com.example.datn;
+
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tập các vùng geofence của thiết bị và trạng thái trong/ngoài của từng vùng.
+ *
+ * Các vùng được chỉ mục theo lưới ô thưa (chỉ lưu ô có vùng chạm tới, dạng mảng đã sắp xếp),
+ * nên mỗi fix chỉ kiểm tra các vùng có hộp bao chứa ô của điểm, không phụ thuộc tổng số vùng.
+ * Vùng quá lớn (phủ quá nhiều ô) được kiểm tra ở mọi fix, sau bước loại nhanh bằng hộp bao.
+ * Kết quả thô của mỗi vùng đi qua một GeofenceDebouncer trước khi thành sự kiện ENTER/EXIT/DWELL.
+ */
+public class FenceRegistry {
+
+    public interface Listener {
+        void onFenceEvent(Fence fence, GeofenceEventType type, long timestamp);
+    }
+
+    private static final String TAG = "FenceRegistry";
+    // Cạnh ô lưới, micro-độ (0.01° ≈ 1.1 km)
+    private static final int CELL_SIZE = 10000;
+    private static final int COLS = 360 * 1000000 / CELL_SIZE;
+    // Vùng phủ nhiều ô hơn mức này không được đưa vào lưới
+    private static final int MAX_CELLS_PER_FENCE = 1024;
+
+    private Fence[] fences = new Fence[0];
+    private GeofenceDebouncer[] debouncers = new GeofenceDebouncer[0];
+    private GeofenceDebouncer.Config debounceConfig = new GeofenceDebouncer.Config(0, 1, 0);
+    // Ô có vùng: cellKeys tăng dần, vùng của ô cellKeys[k] là cellFences[cellStart[k] .. cellStart[k + 1])
+    private int[] cellKeys = new int[0];
+    private int[] cellStart = new int[1];
+    private int[] cellFences = new int[0];
+    private int[] largeFences = new int[0];
+
+    // Đánh dấu vùng đã xét trong lượt hiện tại và danh sách vùng đang hoạt động (ở trong hoặc đang
+    // chờ xác nhận), dùng lại giữa các lượt
+    private int[] visitedPass = new int[0];
+    private int[] activePass = new int[0];
+    private int pass = 0;
+    private int[] activeFences = new int[0];
+    private int activeCount = 0;
+
+    /**
+     * Thay toàn bộ tập vùng. Vùng có cùng id với vùng cũ giữ nguyên trạng thái trong/ngoài.
+     */
+    public synchronized void setFences(List<Fence> newFences) {
+        Map<String, GeofenceDebouncer> previousState = new HashMap<>();
+        for (int i = 0; i < fences.length; i++) {
+            previousState.put(fences[i].id, debouncers[i]);
+        }
+        int count = newFences.size();
+        fences = newFences.toArray(new Fence[0]);
+        debouncers = new GeofenceDebouncer[count];
+        visitedPass = new int[count];
+        activePass = new int[count];
+        activeFences = new int[count];
+        activeCount = 0;
+        for (int i = 0; i < count; i++) {
+            GeofenceDebouncer previous = previousState.get(fences[i].id);
+            debouncers[i] = previous != null ? previous : new GeofenceDebouncer(false);
+            if (debouncers[i].isActive()) {
+                activeFences[activeCount++] = i;
+            }
+        }
+        buildIndex();
+        Log.d(TAG, "Loaded " + count + " fences (" + largeFences.length + " not indexed), "
+                + cellKeys.length + " cells");
+    }
+
+    public synchronized void setDebounceConfig(GeofenceDebouncer.Config config) {
+        debounceConfig = config;
+    }
+
+    private void buildIndex() {
+        int pairCount = 0;
+        int largeCount = 0;
+        for (Fence fence : fences) {
+            long cells = (long) (cellRow(fence.maxLat) - cellRow(fence.minLat) + 1)
+                    * (cellCol(fence.maxLon) - cellCol(fence.minLon) + 1);
+            if (cells > MAX_CELLS_PER_FENCE) {
+                largeCount++;
+            } else {
+                pairCount += (int) cells;
+            }
+        }
+        // Mỗi cặp (ô, vùng) gói thành một long để sắp xếp theo ô
+        long[] pairs = new long[pairCount];
+        largeFences = new int[largeCount];
+        int p = 0;
+        largeCount = 0;
+        for (int f = 0; f < fences.length; f++) {
+            Fence fence = fences[f];
+            long cells = (long) (cellRow(fence.maxLat) - cellRow(fence.minLat) + 1)
+                    * (cellCol(fence.maxLon) - cellCol(fence.minLon) + 1);
+            if (cells > MAX_CELLS_PER_FENCE) {
+                largeFences[largeCount++] = f;
+                continue;
+            }
+            for (int row = cellRow(fence.minLat); row <= cellRow(fence.maxLat); row++) {
+                for (int col = cellCol(fence.minLon); col <= cellCol(fence.maxLon); col++) {
+                    pairs[p++] = ((long) (row * COLS + col) << 32) | f;
+                }
+            }
+        }
+        Arrays.sort(pairs);
+
+        int keyCount = 0;
+        for (int i = 0; i < pairs.length; i++) {
+            if (i == 0 || (pairs[i] >>> 32) != (pairs[i - 1] >>> 32)) {
+                keyCount++;
+            }
+        }
+        cellKeys = new int[keyCount];
+        cellStart = new int[keyCount + 1];
+        cellFences = new int[pairs.length];
+        int k = 0;
+        for (int i = 0; i < pairs.length; i++) {
+            if (i == 0 || (pairs[i] >>> 32) != (pairs[i - 1] >>> 32)) {
+                cellKeys[k] = (int) (pairs[i] >>> 32);
+                cellStart[k++] = i;
+            }
+            cellFences[i] = (int) pairs[i];
+        }
+        cellStart[keyCount] = pairs.length;
+    }
+
+    private static int cellRow(double microLat) {
+        return (int) Math.floor((microLat + 90 * ProvinceBoundaryData.MICRO_DEGREES) / CELL_SIZE);
+    }
+
+    private static int cellCol(double microLon) {
+        return (int) Math.floor((microLon + 180 * ProvinceBoundaryData.MICRO_DEGREES) / CELL_SIZE);
+    }
+
+    /**
+     * Kiểm tra mọi vùng với một fix trong một lượt và báo các sự kiện đã lọc. Không cấp phát.
+     */
+    public synchronized void evaluate(double lat, double lon, long timestamp, Listener listener) {
+        pass++;
+        double microLat = lat * ProvinceBoundaryData.MICRO_DEGREES;
+        double microLon = lon * ProvinceBoundaryData.MICRO_DEGREES;
+        int k = Arrays.binarySearch(cellKeys, cellRow(microLat) * COLS + cellCol(microLon));
+        if (k >= 0) {
+            for (int i = cellStart[k]; i < cellStart[k + 1]; i++) {
+                visitedPass[cellFences[i]] = pass;
+                update(cellFences[i], fences[cellFences[i]].contains(lat, lon), lat, lon, timestamp, listener);
+            }
+        }
+        for (int f : largeFences) {
+            visitedPass[f] = pass;
+            update(f, fences[f].contains(lat, lon), lat, lon, timestamp, listener);
+        }
+
+        // Vùng đang hoạt động mà không nằm trong ô hiện tại thì chắc chắn điểm ở ngoài
+        int kept = 0;
+        for (int i = 0; i < activeCount; i++) {
+            int f = activeFences[i];
+            if (visitedPass[f] != pass) {
+                update(f, false, lat, lon, timestamp, listener);
+            }
+            if (debouncers[f].isActive()) {
+                activePass[f] = pass;
+                activeFences[kept++] = f;
+            }
+        }
+        activeCount = kept;
+        if (k >= 0) {
+            for (int i = cellStart[k]; i < cellStart[k + 1]; i++) {
+                addIfActive(cellFences[i]);
+            }
+        }
+        for (int f : largeFences) {
+            addIfActive(f);
+        }
+    }
+
+    private void update(int f, boolean rawInside, double lat, double lon, long timestamp, Listener listener) {
+        GeofenceDebouncer debouncer = debouncers[f];
+        double borderDistance = debouncer.needsBorderDistance(rawInside, debounceConfig)
+                ? fences[f].distanceToBorder(lat, lon) : 0;
+        GeofenceEventType event = debouncer.update(rawInside, borderDistance, timestamp, debounceConfig);
+        if (event != null) {
+            listener.onFenceEvent(fences[f], event, debouncer.getEventTime());
+        }
+    }
+
+    private void addIfActive(int f) {
+        if (activePass[f] != pass && debouncers[f].isActive()) {
+            activePass[f] = pass;
+            activeFences[activeCount++] = f;
+        }
+    }
+
+    public synchronized int size() {
+        return fences.length;
+    }
+
+    /**
+     * @return true nếu thiết bị đã được xác nhận ở trong vùng có id cho trước
+     */
+    public synchronized boolean isInside(String fenceId) {
+        for (int i = 0; i < activeCount; i++) {
+            if (fences[activeFences[i]].id.equals(fenceId)) {
+                return debouncers[activeFences[i]].isInside();
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,214 @@
+package com.example.datn;
+
+import android.util.Log;
+
+/**
+ * Bộ lọc Kalman vận tốc không đổi cho các fix GNSS, làm mượt vị trí và vận tốc trước khi báo cáo
+ * và kiểm tra vùng.
+ *
+ * Trạng thái là (vị trí, vận tốc) theo mét trong mặt phẳng cục bộ quanh một điểm gốc. Hai trục Đông/Bắc
+ * có cùng mô hình và cùng nhiễu nên dùng chung một ma trận hiệp phương sai 2x2 (p00, p01, p11).
+ * Mỗi fix cập nhật cả vị trí (phương sai theo HDOP và chất lượng định vị GGA) lẫn vận tốc (từ tốc độ
+ * và hướng). Fix lệch quá xa dự đoán bị bỏ qua; nhiều fix lệch liên tiếp hoặc mất tín hiệu lâu thì
+ * khởi tạo lại. Chỉ dùng trạng thái nguyên thủy; chỉ được gọi từ luồng xử lý fix.
+ */
+public class FixFilter {
+
+    private static final String TAG = "FixFilter";
+
+    // Sai số đo khoảng cách tương đương của máy thu (m), nhân với HDOP ra độ lệch chuẩn vị trí
+    private static final double UERE_METERS = 4;
+    private static final double UNKNOWN_HDOP = 5;
+    private static final double MIN_HDOP = 0.5;
+    // Độ lệch chuẩn của vận tốc đo từ Doppler (m/s)
+    private static final double VELOCITY_SIGMA_MPS = 0.5;
+    // Mật độ phổ gia tốc của mô hình (m²/s³), đủ cho xe tăng/giảm tốc và vào cua bình thường
+    private static final double ACCELERATION_NOISE = 1.0;
+    // Ngưỡng khoảng cách Mahalanobis² của sai lệch vị trí (chi-square 2 bậc tự do, 99.9%)
+    private static final double GATE = 13.8;
+    private static final int MAX_REJECTED = 3;
+    private static final long MAX_GAP_MILLIS = 10000;
+    // Khi lệch khỏi gốc quá xa thì dời gốc để phép chiếu phẳng vẫn chính xác
+    private static final double RECENTER_METERS = 10000;
+    // Dưới tốc độ này hướng tính từ vận tốc không tin cậy, giữ hướng trước đó
+    private static final double MIN_COURSE_SPEED_MPS = 0.5;
+    private static final double METERS_PER_DEGREE = ProvinceBoundaryData.EARTH_RADIUS_METERS * Math.PI / 180;
+    private static final long MILLIS_PER_DAY = 86400000L;
+
+    private boolean initialized = false;
+    private double originLat;
+    private double originLon;
+    private double metersPerDegreeLon;
+
+    private double x;
+    private double y;
+    private double vx;
+    private double vy;
+    private double p00;
+    private double p01;
+    private double p11;
+
+    private int lastTimeOfDayMillis;
+    private double course;
+    private int rejectedCount = 0;
+
+    /**
+     * Đưa một fix mới vào bộ lọc.
+     *
+     * @return fix đã làm mượt (vị trí, tốc độ, hướng), các trường khác giữ nguyên; trả về chính fix
+     *         nếu không có tín hiệu
+     */
+    public GnssFix update(GnssFix fix) {
+        if (!fix.hasGpsSignal) {
+            return fix;
+        }
+        double positionVariance = positionVariance(fix);
+        double speed = fix.getSpeedMps();
+        double courseRad = Math.toRadians(fix.course);
+        double measuredVx = speed * Math.sin(courseRad);
+        double measuredVy = speed * Math.cos(courseRad);
+
+        long dtMillis = initialized ? elapsedMillis(fix.utcTimeOfDayMillis) : -1;
+        if (dtMillis < 0 || dtMillis > MAX_GAP_MILLIS) {
+            reset(fix, positionVariance, measuredVx, measuredVy);
+            return fix;
+        }
+        lastTimeOfDayMillis = fix.utcTimeOfDayMillis;
+        predict(dtMillis / 1000.0);
+
+        double measuredX = (fix.lon - originLon) * metersPerDegreeLon;
+        double measuredY = (fix.lat - originLat) * METERS_PER_DEGREE;
+        double innovationX = measuredX - x;
+        double innovationY = measuredY - y;
+        double distanceSquared = (innovationX * innovationX + innovationY * innovationY) / (p00 + positionVariance);
+        if (distanceSquared > GATE) {
+            if (++rejectedCount >= MAX_REJECTED) {
+                Log.d(TAG, "Filter diverged, reset at " + fix.lat + ", " + fix.lon);
+                reset(fix, positionVariance, measuredVx, measuredVy);
+                return fix;
+            }
+            // Bỏ qua fix nhảy (đa đường, mất khóa) nhưng vẫn trả về dự đoán
+            return smoothedFix(fix);
+        }
+        rejectedCount = 0;
+        correct(innovationX, innovationY, measuredVx - vx, measuredVy - vy, positionVariance);
+        if (Math.abs(x) > RECENTER_METERS || Math.abs(y) > RECENTER_METERS) {
+            recenter();
+        }
+        return smoothedFix(fix);
+    }
+
+    /**
+     * Bỏ trạng thái hiện tại, VD: khi module mất tín hiệu; fix có tín hiệu kế tiếp khởi tạo lại bộ lọc.
+     */
+    public void reset() {
+        initialized = false;
+        rejectedCount = 0;
+    }
+
+    private void reset(GnssFix fix, double positionVariance, double measuredVx, double measuredVy) {
+        initialized = true;
+        originLat = fix.lat;
+        originLon = fix.lon;
+        metersPerDegreeLon = METERS_PER_DEGREE * Math.cos(Math.toRadians(originLat));
+        x = 0;
+        y = 0;
+        vx = measuredVx;
+        vy = measuredVy;
+        p00 = positionVariance;
+        p01 = 0;
+        p11 = VELOCITY_SIGMA_MPS * VELOCITY_SIGMA_MPS;
+        lastTimeOfDayMillis = fix.utcTimeOfDayMillis;
+        course = fix.course;
+        rejectedCount = 0;
+    }
+
+    // P = F P Fᵀ + Q với F = [[1, dt], [0, 1]]
+    private void predict(double dt) {
+        x += vx * dt;
+        y += vy * dt;
+        double q = ACCELERATION_NOISE;
+        p00 += 2 * dt * p01 + dt * dt * p11 + q * dt * dt * dt / 3;
+        p01 += dt * p11 + q * dt * dt / 2;
+        p11 += q * dt;
+    }
+
+    // Đo trực tiếp cả vị trí và vận tốc (H = I), R = diag(positionVariance, velocityVariance)
+    private void correct(double innovationX, double innovationY, double innovationVx, double innovationVy,
+                         double positionVariance) {
+        double a = p00 + positionVariance;
+        double b = p01;
+        double d = p11 + VELOCITY_SIGMA_MPS * VELOCITY_SIGMA_MPS;
+        double det = a * d - b * b;
+        double k00 = (p00 * d - p01 * b) / det;
+        double k01 = (p01 * a - p00 * b) / det;
+        double k10 = (p01 * d - p11 * b) / det;
+        double k11 = (p11 * a - p01 * b) / det;
+
+        x += k00 * innovationX + k01 * innovationVx;
+        vx += k10 * innovationX + k11 * innovationVx;
+        y += k00 * innovationY + k01 * innovationVy;
+        vy += k10 * innovationY + k11 * innovationVy;
+
+        double n00 = (1 - k00) * p00 - k01 * p01;
+        double n01 = (1 - k00) * p01 - k01 * p11;
+        double n11 = (1 - k11) * p11 - k10 * p01;
+        p00 = n00;
+        p01 = n01;
+        p11 = n11;
+    }
+
+    private void recenter() {
+        originLat += y / METERS_PER_DEGREE;
+        originLon += x / metersPerDegreeLon;
+        metersPerDegreeLon = METERS_PER_DEGREE * Math.cos(Math.toRadians(originLat));
+        x = 0;
+        y = 0;
+    }
+
+    private GnssFix smoothedFix(GnssFix fix) {
+        double speed = Math.sqrt(vx * vx + vy * vy);
+        if (speed >= MIN_COURSE_SPEED_MPS) {
+            course = Math.toDegrees(Math.atan2(vx, vy));
+            if (course < 0) {
+                course += 360;
+            }
+        }
+        double lat = originLat + y / METERS_PER_DEGREE;
+        double lon = originLon + x / metersPerDegreeLon;
+        return new GnssFix(lat, lon, (float) (speed / GnssFix.KNOTS_TO_MPS), (float) course,
+                fix.fixQuality, fix.satellites, fix.hdop, fix.utcTimeOfDayMillis, fix.utcMillis,
+                fix.hasGpsSignal);
+    }
+
+    // Khoảng thời gian theo giờ UTC trong ngày của module, xử lý qua nửa đêm
+    private long elapsedMillis(int timeOfDayMillis) {
+        long dt = timeOfDayMillis - lastTimeOfDayMillis;
+        if (dt < -MILLIS_PER_DAY / 2) {
+            dt += MILLIS_PER_DAY;
+        }
+        return dt;
+    }
+
+    // σ = UERE × HDOP, thu nhỏ với DGPS/RTK và nới rộng với dead reckoning
+    private static double positionVariance(GnssFix fix) {
+        double hdop = fix.hdop > 0 ? Math.max(fix.hdop, MIN_HDOP) : UNKNOWN_HDOP;
+        double sigma = UERE_METERS * hdop * qualityScale(fix.fixQuality);
+        return sigma * sigma;
+    }
+
+    private static double qualityScale(int fixQuality) {
+        switch (fixQuality) {
+            case 2:  // DGPS / SBAS
+                return 0.5;
+            case 4:  // RTK fixed
+                return 0.05;
+            case 5:  // RTK float
+                return 0.2;
+            case 6:  // Dead reckoning
+                return 3;
+            default:
+                return 1;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.datn;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hàng đợi vòng có giới hạn, một luồng ghi (đọc UART) và một luồng đọc (xử lý/gửi MQTT).
+ * Luồng ghi không bao giờ bị chặn: khi đầy, bản ghi được xử lý theo OverflowPolicy
+ * và được đếm vào số lần bỏ.
+ */
+public class FixRingBuffer {
+
+    public enum OverflowPolicy {
+        // Bỏ fix cũ nhất chưa xử lý để nhận fix mới
+        DROP_OLDEST,
+        // Ghi đè fix mới nhất trong hàng đợi bằng fix vừa đến
+        COALESCE
+    }
+
+    private final AtomicReferenceArray<GnssFix> slots;
+    private final int mask;
+    private final OverflowPolicy overflowPolicy;
+
+    // head: vị trí đọc kế tiếp, tail: vị trí ghi kế tiếp (tăng đơn điệu)
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    private volatile Thread waitingConsumer;
+
+    /**
+     * @param capacity số slot, được làm tròn lên lũy thừa của 2 (tối thiểu 2)
+     */
+    public FixRingBuffer(int capacity, OverflowPolicy overflowPolicy) {
+        int size = 2;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Thêm fix vào hàng đợi. Chỉ được gọi từ luồng ghi.
+     */
+    public void offer(GnssFix fix) {
+        long t = tail.get();
+        while (t - head.get() > mask) {
+            if (overflowPolicy == OverflowPolicy.COALESCE) {
+                slots.set((int) ((t - 1) & mask), fix);
+                coalescedCount.incrementAndGet();
+                wakeConsumer();
+                return;
+            }
+            long h = head.get();
+            if (t - h > mask && head.compareAndSet(h, h + 1)) {
+                droppedCount.incrementAndGet();
+            }
+        }
+        slots.lazySet((int) (t & mask), fix);
+        // Ghi volatile đầy đủ: lazySet không ngăn lần đọc waitingConsumer bên dưới bị xếp lên trước,
+        // khi đó luồng đọc vừa đăng ký chờ có thể không thấy fix mà cũng không được đánh thức
+        tail.set(t + 1);
+        wakeConsumer();
+    }
+
+    /**
+     * Lấy fix cũ nhất chưa xử lý. Chỉ được gọi từ luồng đọc.
+     *
+     * @return fix, hoặc null nếu hàng đợi rỗng
+     */
+    public GnssFix poll() {
+        while (true) {
+            long h = head.get();
+            if (h >= tail.get()) {
+                return null;
+            }
+            GnssFix fix = slots.get((int) (h & mask));
+            // CAS vì luồng ghi có thể đã đẩy head lên khi áp dụng DROP_OLDEST
+            if (head.compareAndSet(h, h + 1)) {
+                return fix;
+            }
+        }
+    }
+
+    /**
+     * Chờ tới khi có fix hoặc hết thời gian. Chỉ được gọi từ luồng đọc.
+     *
+     * @return fix, hoặc null nếu hết thời gian chờ hay luồng bị ngắt
+     */
+    public GnssFix take(long timeoutNanos) {
+        GnssFix fix = poll();
+        if (fix != null) {
+            return fix;
+        }
+        waitingConsumer = Thread.currentThread();
+        try {
+            // Kiểm tra lại sau khi đăng ký để không lỡ tín hiệu đánh thức
+            fix = poll();
+            if (fix == null && !Thread.currentThread().isInterrupted()) {
+                LockSupport.parkNanos(this, timeoutNanos);
+                fix = poll();
+            }
+        } finally {
+            waitingConsumer = null;
+        }
+        return fix;
+    }
+
+    private void wakeConsumer() {
+        Thread consumer = waitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    public int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return số fix cũ đã bị bỏ do hàng đợi đầy (DROP_OLDEST)
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return số fix đã bị ghi đè do hàng đợi đầy (COALESCE)
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+}
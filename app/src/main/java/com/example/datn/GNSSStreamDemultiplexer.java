@@ -0,0 +1,244 @@
+package com.example.datn;
+
+import java.util.Arrays;
+
+/**
+ * Tách luồng UART thành các bản tin NMEA ($...*hh) và UBX (0xB5 0x62) trong một lần duyệt.
+ * Mỗi byte chỉ được xét một lần; bản tin hoàn chỉnh được chuyển tới handler đã đăng ký
+ * theo talker/loại câu (NMEA) hoặc class/ID (UBX).
+ */
+public class GNSSStreamDemultiplexer {
+
+    private static final int SYNC_CHAR_1 = 0xB5;
+    private static final int SYNC_CHAR_2 = 0x62;
+    private static final int UBX_HEADER_LENGTH = 6;
+    private static final int UBX_CHECKSUM_LENGTH = 2;
+    private static final int MAX_UBX_FRAME_LENGTH = 2048;
+
+    // Dùng khi đăng ký handler cho mọi ID trong một class UBX
+    public static final int ANY_UBX_ID = 256;
+
+    public interface NmeaHandler {
+        /**
+         * @param buffer bộ đệm chứa câu đã kiểm tra checksum, chỉ hợp lệ trong lần gọi này
+         * @param offset vị trí ký tự '$'
+         * @param length độ dài câu, tính đến hết checksum (không gồm CR/LF)
+         */
+        void onNmeaSentence(byte[] buffer, int offset, int length);
+    }
+
+    public interface UbxHandler {
+        /**
+         * @param msgClass class của bản tin UBX
+         * @param msgId    ID của bản tin UBX
+         * @param frame    bộ đệm chứa cả bản tin (sync, header, payload, checksum)
+         * @param offset   vị trí byte sync đầu tiên
+         * @param length   độ dài toàn bộ bản tin
+         */
+        void onUbxMessage(int msgClass, int msgId, byte[] frame, int offset, int length);
+    }
+
+    private enum State {
+        IDLE,
+        NMEA_BODY,
+        UBX_SYNC2,
+        UBX_HEADER,
+        UBX_PAYLOAD
+    }
+
+    private final NMEAProcessor nmeaProcessor;
+    private State currentState = State.IDLE;
+
+    // Handler NMEA: khóa = (talker << 24) | loại câu, talker = 0 nghĩa là mọi talker
+    private long[] nmeaKeys = new long[0];
+    private NmeaHandler[] nmeaHandlers = new NmeaHandler[0];
+    private NmeaHandler defaultNmeaHandler;
+
+    // Handler UBX: ubxHandlers[class][id], chỉ số ANY_UBX_ID dành cho cả class
+    private final UbxHandler[][] ubxHandlers = new UbxHandler[256][];
+
+    private final byte[] ubxBuffer = new byte[MAX_UBX_FRAME_LENGTH];
+    private int ubxIndex = 0;
+    private int ubxFrameLength = 0;
+    private int ckA = 0;
+    private int ckB = 0;
+
+    public GNSSStreamDemultiplexer(NMEAProcessor nmeaProcessor) {
+        this.nmeaProcessor = nmeaProcessor;
+    }
+
+    /**
+     * Đăng ký handler cho một loại câu NMEA.
+     *
+     * @param talker       talker ID 2 ký tự (VD: "GP", "GN"), null để nhận từ mọi talker
+     * @param sentenceType loại câu 3 ký tự (VD: "GGA")
+     */
+    public void registerNmeaHandler(String talker, String sentenceType, NmeaHandler handler) {
+        if (sentenceType == null || sentenceType.length() != 3
+                || (talker != null && talker.length() != 2)) {
+            throw new IllegalArgumentException("Talker/loại câu NMEA không hợp lệ");
+        }
+        long key = packNmeaKey(talker == null ? 0 : packTalker(talker.charAt(0), talker.charAt(1)),
+                packType(sentenceType.charAt(0), sentenceType.charAt(1), sentenceType.charAt(2)));
+        nmeaKeys = Arrays.copyOf(nmeaKeys, nmeaKeys.length + 1);
+        nmeaHandlers = Arrays.copyOf(nmeaHandlers, nmeaHandlers.length + 1);
+        nmeaKeys[nmeaKeys.length - 1] = key;
+        nmeaHandlers[nmeaHandlers.length - 1] = handler;
+    }
+
+    /**
+     * Handler nhận các câu NMEA hợp lệ không khớp với đăng ký nào.
+     */
+    public void setDefaultNmeaHandler(NmeaHandler handler) {
+        defaultNmeaHandler = handler;
+    }
+
+    /**
+     * Đăng ký handler cho bản tin UBX theo class/ID.
+     *
+     * @param msgId ID bản tin, hoặc ANY_UBX_ID để nhận mọi bản tin thuộc class
+     */
+    public void registerUbxHandler(int msgClass, int msgId, UbxHandler handler) {
+        if (msgClass < 0 || msgClass > 0xFF || msgId < 0 || msgId > ANY_UBX_ID) {
+            throw new IllegalArgumentException("Class/ID UBX không hợp lệ");
+        }
+        if (ubxHandlers[msgClass] == null) {
+            ubxHandlers[msgClass] = new UbxHandler[ANY_UBX_ID + 1];
+        }
+        ubxHandlers[msgClass][msgId] = handler;
+    }
+
+    /**
+     * Xử lý một khối byte nhận được từ UART.
+     */
+    public void processIncomingBytes(byte[] data, int offset, int length) {
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            processIncomingByte(data[i] & 0xFF);
+        }
+    }
+
+    public void processIncomingByte(int inputByte) {
+        switch (currentState) {
+            case IDLE:
+                startFrame(inputByte);
+                break;
+            case NMEA_BODY:
+                if (inputByte == SYNC_CHAR_1 || inputByte == '$') {
+                    // Câu NMEA bị cắt ngang: không nuốt byte sync của bản tin kế tiếp
+                    nmeaProcessor.reset();
+                    startFrame(inputByte);
+                } else {
+                    if (nmeaProcessor.processFrameByte(inputByte)) {
+                        dispatchNmea(nmeaProcessor.getFrameBuffer(), 0, nmeaProcessor.getFrameLength());
+                    }
+                    if (!nmeaProcessor.isCollectingFrame()) {
+                        currentState = State.IDLE;
+                    }
+                }
+                break;
+            case UBX_SYNC2:
+                if (inputByte == SYNC_CHAR_2) {
+                    ubxBuffer[0] = (byte) SYNC_CHAR_1;
+                    ubxBuffer[1] = (byte) SYNC_CHAR_2;
+                    ubxIndex = 2;
+                    ckA = 0;
+                    ckB = 0;
+                    currentState = State.UBX_HEADER;
+                } else {
+                    startFrame(inputByte);
+                }
+                break;
+            case UBX_HEADER:
+                ubxBuffer[ubxIndex++] = (byte) inputByte;
+                ckA = (ckA + inputByte) & 0xFF;
+                ckB = (ckB + ckA) & 0xFF;
+                if (ubxIndex == UBX_HEADER_LENGTH) {
+                    int payloadLength = (ubxBuffer[4] & 0xFF) | ((ubxBuffer[5] & 0xFF) << 8);
+                    ubxFrameLength = UBX_HEADER_LENGTH + payloadLength + UBX_CHECKSUM_LENGTH;
+                    if (ubxFrameLength > ubxBuffer.length) {
+                        currentState = State.IDLE;
+                    } else {
+                        currentState = State.UBX_PAYLOAD;
+                    }
+                }
+                break;
+            case UBX_PAYLOAD:
+                ubxBuffer[ubxIndex++] = (byte) inputByte;
+                if (ubxIndex <= ubxFrameLength - UBX_CHECKSUM_LENGTH) {
+                    ckA = (ckA + inputByte) & 0xFF;
+                    ckB = (ckB + ckA) & 0xFF;
+                } else if (ubxIndex == ubxFrameLength) {
+                    currentState = State.IDLE;
+                    if ((ubxBuffer[ubxFrameLength - 2] & 0xFF) == ckA
+                            && (ubxBuffer[ubxFrameLength - 1] & 0xFF) == ckB) {
+                        dispatchUbx();
+                    }
+                }
+                break;
+        }
+    }
+
+    private void startFrame(int inputByte) {
+        if (inputByte == '$') {
+            nmeaProcessor.processFrameByte(inputByte);
+            currentState = State.NMEA_BODY;
+        } else if (inputByte == SYNC_CHAR_1) {
+            currentState = State.UBX_SYNC2;
+        } else {
+            currentState = State.IDLE;
+        }
+    }
+
+    private void dispatchNmea(byte[] buffer, int offset, int length) {
+        // Câu dạng $TTSSS,... (talker 2 ký tự + loại câu 3 ký tự)
+        if (length >= 6) {
+            int talker = packTalker(buffer[offset + 1], buffer[offset + 2]);
+            int type = packType(buffer[offset + 3], buffer[offset + 4], buffer[offset + 5]);
+            long exactKey = packNmeaKey(talker, type);
+            long anyTalkerKey = packNmeaKey(0, type);
+            NmeaHandler fallback = null;
+            for (int i = 0; i < nmeaKeys.length; i++) {
+                if (nmeaKeys[i] == exactKey) {
+                    nmeaHandlers[i].onNmeaSentence(buffer, offset, length);
+                    return;
+                }
+                if (fallback == null && nmeaKeys[i] == anyTalkerKey) {
+                    fallback = nmeaHandlers[i];
+                }
+            }
+            if (fallback != null) {
+                fallback.onNmeaSentence(buffer, offset, length);
+                return;
+            }
+        }
+        if (defaultNmeaHandler != null) {
+            defaultNmeaHandler.onNmeaSentence(buffer, offset, length);
+        }
+    }
+
+    private void dispatchUbx() {
+        int msgClass = ubxBuffer[2] & 0xFF;
+        int msgId = ubxBuffer[3] & 0xFF;
+        UbxHandler[] classHandlers = ubxHandlers[msgClass];
+        if (classHandlers == null) {
+            return;
+        }
+        UbxHandler handler = classHandlers[msgId] != null ? classHandlers[msgId] : classHandlers[ANY_UBX_ID];
+        if (handler != null) {
+            handler.onUbxMessage(msgClass, msgId, ubxBuffer, 0, ubxFrameLength);
+        }
+    }
+
+    private static int packTalker(int c0, int c1) {
+        return ((c0 & 0xFF) << 8) | (c1 & 0xFF);
+    }
+
+    private static int packType(int c0, int c1, int c2) {
+        return ((c0 & 0xFF) << 16) | ((c1 & 0xFF) << 8) | (c2 & 0xFF);
+    }
+
+    private static long packNmeaKey(int talker, int type) {
+        return ((long) talker << 24) | type;
+    }
+}
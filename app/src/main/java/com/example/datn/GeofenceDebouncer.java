@@ -0,0 +1,109 @@
+package com.example.datn;
+
+/**
+ * Lọc nhiễu trạng thái trong/ngoài của một vùng trước khi phát sự kiện ENTER/EXIT/DWELL.
+ *
+ * Một lần đổi trạng thái chỉ được xác nhận khi đủ confirmFixes fix liên tiếp cho cùng kết quả mới,
+ * và mỗi fix đó phải cách ranh giới ít nhất hysteresisMeters về phía mới. Fix quay lại trạng thái cũ
+ * hủy lần đổi đang chờ. DWELL được phát một lần khi ở trong vùng liên tục đủ dwellMillis kể từ một lần
+ * ENTER đã xác nhận; trạng thái "trong" giả định lúc khởi tạo không tính là đã vào vùng.
+ * Mọi timestamp đưa vào một bộ lọc phải cùng một nguồn thời gian.
+ */
+public class GeofenceDebouncer {
+
+    /**
+     * Tham số lọc, dùng chung cho nhiều vùng và có thể thay khi server cập nhật attribute.
+     */
+    public static class Config {
+        public final double hysteresisMeters;
+        public final int confirmFixes;
+        public final long dwellMillis; // 0 = không phát DWELL
+
+        public Config(double hysteresisMeters, int confirmFixes, long dwellMillis) {
+            this.hysteresisMeters = hysteresisMeters;
+            this.confirmFixes = Math.max(1, confirmFixes);
+            this.dwellMillis = dwellMillis;
+        }
+    }
+
+    private boolean inside;
+    private int pendingFixes = 0;
+    private long pendingSince;
+    private long enteredAt;
+    // DWELL chỉ được tính sau một lần ENTER đã xác nhận
+    private boolean dwellArmed = false;
+    private boolean dwellReported = false;
+    private long eventTime;
+
+    /**
+     * @param inside trạng thái ban đầu
+     */
+    public GeofenceDebouncer(boolean inside) {
+        this.inside = inside;
+    }
+
+    /**
+     * @return true nếu update cần khoảng cách tới ranh giới cho kết quả thô này (tính khoảng cách tốn kém)
+     */
+    public boolean needsBorderDistance(boolean rawInside, Config config) {
+        return rawInside != inside && config.hysteresisMeters > 0;
+    }
+
+    /**
+     * Đưa kết quả kiểm tra thô của một fix vào bộ lọc. Không cấp phát.
+     *
+     * @param borderDistanceMeters khoảng cách từ fix tới ranh giới, chỉ cần khi needsBorderDistance
+     * @return sự kiện phát ra ở fix này, hoặc null
+     */
+    public GeofenceEventType update(boolean rawInside, double borderDistanceMeters, long timestamp, Config config) {
+        if (rawInside != inside) {
+            if (borderDistanceMeters >= config.hysteresisMeters) {
+                if (pendingFixes == 0) {
+                    pendingSince = timestamp;
+                }
+                pendingFixes++;
+                if (pendingFixes >= config.confirmFixes) {
+                    // Mốc thời gian sự kiện là fix đầu tiên của lần đổi trạng thái
+                    inside = rawInside;
+                    pendingFixes = 0;
+                    eventTime = pendingSince;
+                    if (inside) {
+                        enteredAt = pendingSince;
+                        dwellArmed = true;
+                        dwellReported = false;
+                        return GeofenceEventType.ENTER;
+                    }
+                    dwellArmed = false;
+                    return GeofenceEventType.EXIT;
+                }
+            }
+            // Nằm trong dải trễ: giữ nguyên số fix đang chờ
+            return null;
+        }
+        pendingFixes = 0;
+        if (inside && dwellArmed && !dwellReported && config.dwellMillis > 0 && timestamp - enteredAt >= config.dwellMillis) {
+            dwellReported = true;
+            eventTime = timestamp;
+            return GeofenceEventType.DWELL;
+        }
+        return null;
+    }
+
+    public boolean isInside() {
+        return inside;
+    }
+
+    /**
+     * @return true nếu đang ở trong vùng hoặc đang chờ xác nhận một lần đổi trạng thái
+     */
+    public boolean isActive() {
+        return inside || pendingFixes > 0;
+    }
+
+    /**
+     * @return thời điểm của sự kiện vừa trả về từ update
+     */
+    public long getEventTime() {
+        return eventTime;
+    }
+}
@@ -0,0 +1,7 @@
+package com.example.datn;
+
+public enum GeofenceEventType {
+    ENTER,
+    EXIT,
+    DWELL
+}
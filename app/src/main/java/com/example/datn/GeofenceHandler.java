@@ -20,23 +20,51 @@ public class GeofenceHandler {
     }
 
     private static boolean rayCrossesSegment(LatLng point, LatLng a, LatLng b) {
-        if (a.latitude > b.latitude) {
-            LatLng temp = a;
-            a = b;
-            b = temp;
+        return rayCrossesSegment(point.latitude, point.longitude, a.latitude, a.longitude, b.latitude, b.longitude);
+    }
+
+    /**
+     * Ray casting trên mảng tọa độ micro-độ (lat, lon xen kẽ), cùng quy tắc với bản dùng LatLng.
+     *
+     * @param coordinates mảng tọa độ micro-độ
+     * @param firstPoint  chỉ số điểm đầu tiên của đa giác
+     * @param pointCount  số điểm của đa giác
+     */
+    public static boolean isPointInPolygon(double lat, double lon, int[] coordinates, int firstPoint, int pointCount) {
+        int crossings = 0;
+        for (int i = 0; i < pointCount; i++) {
+            int a = (firstPoint + i) * 2;
+            int b = (firstPoint + (i + 1) % pointCount) * 2;
+            if (rayCrossesSegment(lat, lon,
+                    coordinates[a] / ProvinceBoundaryData.MICRO_DEGREES, coordinates[a + 1] / ProvinceBoundaryData.MICRO_DEGREES,
+                    coordinates[b] / ProvinceBoundaryData.MICRO_DEGREES, coordinates[b + 1] / ProvinceBoundaryData.MICRO_DEGREES)) {
+                crossings++;
+            }
+        }
+        return (crossings % 2 == 1);
+    }
+
+    // Dịch vĩ độ điểm trên biến cục bộ thay vì tạo LatLng mới
+    static boolean rayCrossesSegment(double lat, double lon, double aLat, double aLon, double bLat, double bLon) {
+        if (aLat > bLat) {
+            double tempLat = aLat;
+            double tempLon = aLon;
+            aLat = bLat;
+            aLon = bLon;
+            bLat = tempLat;
+            bLon = tempLon;
         }
 
-        if (point.latitude == a.latitude || point.latitude == b.latitude) {
-            point = new LatLng(point.latitude + 0.00001, point.longitude);
+        if (lat == aLat || lat == bLat) {
+            lat += 0.00001;
         }
 
-        if (point.latitude < a.latitude || point.latitude > b.latitude) {
+        if (lat < aLat || lat > bLat) {
             return false;
         }
 
-        double xIntersect = (b.longitude - a.longitude) * (point.latitude - a.latitude)
-                / (b.latitude - a.latitude) + a.longitude;
+        double xIntersect = (bLon - aLon) * (lat - aLat) / (bLat - aLat) + aLon;
 
-        return (xIntersect > point.longitude);
+        return (xIntersect > lon);
     }
-}
\ No newline at end of file
+}
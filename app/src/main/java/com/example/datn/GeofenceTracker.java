@@ -0,0 +1,104 @@
+package com.example.datn;
+
+import android.util.Log;
+
+/**
+ * Theo dõi trạng thái trong/ngoài tỉnh của thiết bị mà không cần kiểm tra đầy đủ ở mỗi fix.
+ *
+ * Sau mỗi lần kiểm tra đầy đủ, tracker ghi lại vị trí mốc và khoảng cách ngắn nhất từ mốc tới
+ * ranh giới. Chừng nào thiết bị còn cách mốc ít hơn khoảng cách đó thì chưa thể cắt qua ranh giới,
+ * nên trạng thái cũ được dùng lại. Độ dời so với mốc không vượt quá quãng đường đã đi, nên quy tắc
+ * này không bao giờ bỏ sót một lần kiểm tra mà quãng đường tích lũy đòi hỏi.
+ */
+public class GeofenceTracker {
+
+    private static final String TAG = "GeofenceTracker";
+    // Chỉ dùng 95% khoảng cách tới ranh giới để bù sai số của phép chiếu phẳng
+    private static final double BUDGET_SAFETY_FACTOR = 0.95;
+
+    private final BoundaryStore boundaryStore;
+
+    private String province;
+    private boolean inside;
+    private boolean hasAnchor = false;
+    private double anchorLat;
+    private double anchorLon;
+    private double budgetMeters;
+    private double borderDistanceMeters;
+    private long fullCheckCount = 0;
+    private long skippedCount = 0;
+
+    public GeofenceTracker(BoundaryStore boundaryStore) {
+        this.boundaryStore = boundaryStore;
+    }
+
+    /**
+     * Kiểm tra điểm có nằm trong tỉnh không, cùng kết quả với GetBoundary.isPointInProvince.
+     *
+     * @return false nếu điểm nằm ngoài hoặc không biết tỉnh
+     */
+    public synchronized boolean isInside(String provinceName, double lat, double lon) {
+        if (provinceName == null || !provinceName.equals(province)) {
+            // Đổi tỉnh cần theo dõi: bỏ mốc cũ
+            province = provinceName;
+            hasAnchor = false;
+        }
+        if (hasAnchor) {
+            double displacement = displacementMeters(lat, lon);
+            if (displacement < budgetMeters) {
+                skippedCount++;
+                borderDistanceMeters = budgetMeters / BUDGET_SAFETY_FACTOR - displacement;
+                return inside;
+            }
+        }
+
+        ProvinceBoundaryData data = boundaryStore.getData();
+        int index = data != null ? data.indexOf(provinceName) : -1;
+        if (index < 0) {
+            hasAnchor = false;
+            borderDistanceMeters = 0;
+            return false;
+        }
+        fullCheckCount++;
+        inside = boundaryStore.getCellCache().contains(index, lat, lon);
+        borderDistanceMeters = data.distanceToBoundary(index, lat, lon);
+        budgetMeters = borderDistanceMeters * BUDGET_SAFETY_FACTOR;
+        anchorLat = lat;
+        anchorLon = lon;
+        hasAnchor = true;
+        Log.d(TAG, "Full check: inside=" + inside + ", next check after " + Math.round(budgetMeters) + " m"
+                + " (" + fullCheckCount + " full, " + skippedCount + " skipped)");
+        return inside;
+    }
+
+    /**
+     * @return khoảng cách (mét) từ điểm của lần gọi isInside gần nhất tới ranh giới; khi lần gọi đó
+     * được bỏ qua, đây là cận dưới (khoảng cách từ mốc trừ độ dời)
+     */
+    public synchronized double getBorderDistance() {
+        return borderDistanceMeters;
+    }
+
+    /**
+     * Bỏ mốc hiện tại, lần gọi kế tiếp sẽ kiểm tra đầy đủ.
+     */
+    public synchronized void reset() {
+        hasAnchor = false;
+    }
+
+    public synchronized long getFullCheckCount() {
+        return fullCheckCount;
+    }
+
+    public synchronized long getSkippedCount() {
+        return skippedCount;
+    }
+
+    // Khoảng cách (mét) từ mốc tới điểm, phép chiếu phẳng như ProvinceBoundaryData.distanceToBoundary
+    private double displacementMeters(double lat, double lon) {
+        double metersPerDegree = ProvinceBoundaryData.EARTH_RADIUS_METERS * Math.PI / 180;
+        double dy = (lat - anchorLat) * metersPerDegree;
+        double dx = (lon - anchorLon) * metersPerDegree * Math.cos(Math.toRadians(anchorLat));
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+}
@@ -9,8 +9,12 @@ import java.util.*;
 
 public class GetBoundary {
 
-    public static Map<String, List<LatLng>> getProvinceBoundaries(Context context) {
-        Map<String, List<LatLng>> provinceBoundaries = new HashMap<>();
+    /**
+     * Đọc ranh giới từ provinces.json. Mỗi nhóm tọa độ của tỉnh được giữ thành một vòng riêng
+     * (vòng ngoài, đảo hoặc lỗ), không nối chung thành một danh sách.
+     */
+    public static Map<String, List<List<LatLng>>> getProvinceBoundaries(Context context) {
+        Map<String, List<List<LatLng>>> provinceBoundaries = new HashMap<>();
 
         String provincesJson = loadJSONFromAsset(context, "provinces.json");
         if (provincesJson == null) return provinceBoundaries; // Trả về empty nếu lỗi
@@ -22,18 +26,20 @@ public class GetBoundary {
             String provinceName = provinceObj.get("tỉnh").getAsString();
             JsonArray coordinateGroups = provinceObj.getAsJsonArray("tọa độ");
 
-            List<LatLng> latLngList = new ArrayList<>();
+            List<List<LatLng>> rings = new ArrayList<>();
             for (JsonElement groupElement : coordinateGroups) {
                 JsonArray coords = groupElement.getAsJsonArray();
+                List<LatLng> ring = new ArrayList<>(coords.size());
                 for (JsonElement coordElement : coords) {
                     JsonArray latlng = coordElement.getAsJsonArray();
                     double lng = latlng.get(0).getAsDouble();
                     double lat = latlng.get(1).getAsDouble();
-                    latLngList.add(new LatLng(lat, lng));
+                    ring.add(new LatLng(lat, lng));
                 }
+                rings.add(ring);
             }
 
-            provinceBoundaries.put(provinceName, latLngList);
+            provinceBoundaries.put(provinceName, rings);
         }
 
         return provinceBoundaries;
@@ -56,13 +62,18 @@ public class GetBoundary {
     }
 
     public static List<LatLng> getBoundaryForProvince(Context context, String provinceName) {
-        Map<String, List<LatLng>> all = getProvinceBoundaries(context);
-        return all.getOrDefault(provinceName, new ArrayList<>());
+        return BoundaryStore.getInstance(context).getBoundary(provinceName);
+    }
+
+    public static List<LatLng> getBoundaryForProvince(Context context, String provinceName, int level) {
+        return BoundaryStore.getInstance(context).getBoundary(provinceName, level);
     }
 
     public static boolean isPointInProvince(Context context, LatLng point, String provinceName) {
-        List<LatLng> boundary = getBoundaryForProvince(context, provinceName);
-        return boundary != null && !boundary.isEmpty()
-                && GeofenceHandler.isPointInPolygon(point, boundary);
+        return BoundaryStore.getInstance(context).contains(provinceName, point.latitude, point.longitude);
+    }
+
+    public static String getProvinceAt(Context context, LatLng point) {
+        return BoundaryStore.getInstance(context).findProvince(point.latitude, point.longitude);
     }
 }
@@ -0,0 +1,53 @@
+package com.example.datn;
+
+/**
+ * Một lần định vị hoàn chỉnh của module GNSS, gộp từ các câu RMC/GGA/GNS/VTG cùng một epoch.
+ * Đối tượng bất biến nên có thể chia sẻ giữa các luồng mà không cần đồng bộ.
+ */
+public final class GnssFix {
+
+    public static final float KNOTS_TO_KMH = 1.852f;
+    public static final float KNOTS_TO_MPS = 1852f / 3600f;
+
+    public final double lat;
+    public final double lon;
+    public final float speedKnots;   // Tốc độ trên mặt đất (knot)
+    public final float course;       // Hướng di chuyển (độ)
+    public final int fixQuality;     // Chất lượng định vị theo GGA (0 = không có)
+    public final int satellites;     // Số vệ tinh được sử dụng
+    public final float hdop;
+    public final int utcTimeOfDayMillis;
+    public final long utcMillis;     // Thời điểm UTC đầy đủ, 0 nếu chưa biết ngày
+    public final boolean hasGpsSignal;
+
+    public GnssFix(double lat, double lon, float speedKnots, float course, int fixQuality,
+                   int satellites, float hdop, int utcTimeOfDayMillis, long utcMillis,
+                   boolean hasGpsSignal) {
+        this.lat = lat;
+        this.lon = lon;
+        this.speedKnots = speedKnots;
+        this.course = course;
+        this.fixQuality = fixQuality;
+        this.satellites = satellites;
+        this.hdop = hdop;
+        this.utcTimeOfDayMillis = utcTimeOfDayMillis;
+        this.utcMillis = utcMillis;
+        this.hasGpsSignal = hasGpsSignal;
+    }
+
+    public float getSpeedKmh() {
+        return speedKnots * KNOTS_TO_KMH;
+    }
+
+    public float getSpeedMps() {
+        return speedKnots * KNOTS_TO_MPS;
+    }
+
+    @Override
+    public String toString() {
+        return "GnssFix{lat=" + lat + ", lon=" + lon + ", speedKnots=" + speedKnots
+                + ", course=" + course + ", fixQuality=" + fixQuality
+                + ", satellites=" + satellites + ", hdop=" + hdop
+                + ", utcMillis=" + utcMillis + ", hasGpsSignal=" + hasGpsSignal + "}";
+    }
+}
@@ -86,13 +86,15 @@ public class LocalStorageManager {
                     long timestamp = Long.parseLong(parts[0]);
                     double lat = Double.parseDouble(parts[1]);
                     double lon = Double.parseDouble(parts[2]);
-                    double speed = Double.parseDouble(parts[3]);
-                    mqttHandler.sendLocationTelemetry(lat, lon, speed, MqttHandler.UBLOX_LOCATION);
+                    // logLocationData không ghi tốc độ
+                    double speed = parts.length >= 4 ? Double.parseDouble(parts[3]) : 0;
+                    mqttHandler.sendLocationBackfill(lat, lon, speed, MqttHandler.UBLOX_LOCATION, timestamp);
                 } catch (NumberFormatException e) {
                     Log.e(TAG, "Invalid log entry: " + entry);
                 }
             }
         }
+        mqttHandler.flushTelemetry();
         clearLog(LOCATION_LOG_FILE);
     }
 }
@@ -15,22 +15,22 @@ import android.widget.TextView;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
 import java.util.Objects;
 
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 
-import com.google.android.gms.maps.model.LatLng;
 
 public class MainActivity extends AppCompatActivity {
 
     private UartReader uartReader;
     private NMEAProcessor nmeaProcessor;
     private NMEAHandler nmeaHandler;
+    private GNSSStreamDemultiplexer gnssDemultiplexer;
     private Thread readThread;
+    private Thread fixProcessingThread;
+    // Tách luồng đọc UART khỏi xử lý fix (geofence, MQTT) để đọc không bao giờ bị chặn bởi mạng
+    private final FixRingBuffer fixQueue = new FixRingBuffer(FIX_QUEUE_CAPACITY, FixRingBuffer.OverflowPolicy.DROP_OLDEST);
 
     // TextViews để hiển thị dữ liệu
     private TextView txtCoordinates;
@@ -42,21 +42,32 @@ public class MainActivity extends AppCompatActivity {
     private MqttHandler mqttHandler;
     private LocalStorageManager localStorageManager;
     private static final int LOCATION_PERMISSION_REQUEST_CODE = 100;
+    private static final long READ_RETRY_DELAY_MS = 10;
+    private static final int FIX_QUEUE_CAPACITY = 64;
+    private static final long FIX_QUEUE_POLL_TIMEOUT_NS = 1_000_000_000L;
 
-    // Buffer để lưu các tọa độ GNSS từ các hệ thống vệ tinh
-    private final List<float[]> gnssCoordinatesBuffer = Collections.synchronizedList(new ArrayList<>());
+    // Làm mượt vị trí/vận tốc của từng epoch trước khi báo cáo và kiểm tra vùng (chỉ dùng trên luồng xử lý fix)
+    private final FixFilter fixFilter = new FixFilter();
+    // Fix đã làm mượt gần nhất, được gửi đi khi báo cáo; là fix không có tín hiệu khi module mất khóa
+    private volatile GnssFix smoothedFix;
 
     // Lưu tọa độ trung bình đã gửi gần nhất (dùng để so sánh thay đổi vị trí)
     private boolean isNetworkAvailable = false;
-    private float lastSentLat = -1.0f;
-    private float lastSentLon = -1.0f;
     private long lastTimestamp = 0;
     private int maxTimeout = 300000;
     private int maxDistance = 10;
+    private double reportTurnAngle = ReportingPolicy.DEFAULT_TURN_DEGREES;
+    // Quyết định khi nào gửi vị trí GNSS (khoảng cách, đổi hướng, tốc độ, thời gian) và cộng dồn quãng đường
+    private final ReportingPolicy reportingPolicy = new ReportingPolicy(maxDistance, maxTimeout);
     private String province;
     private boolean isGeofenceEnable = false;
     private boolean isOutside = false;
-    private GpsState gpsStatus = GpsState.NO_SIGNAL;
+    private GeofenceTracker geofenceTracker;
+    private GeofenceDebouncer provinceDebouncer;
+    private String debouncedProvince;
+    private String currentProvince; // Tỉnh hiện tại theo fix GNSS, tự động xác định
+    // Đổi từ luồng chính (vị trí thiết bị) và luồng xử lý fix (GNSS)
+    private volatile GpsState gpsStatus = GpsState.NO_SIGNAL;
     private boolean lastSentGpsStatus = true;
     private int batteryLevel = 0;
     private boolean isCharging = false;
@@ -70,7 +81,10 @@ public class MainActivity extends AppCompatActivity {
         @Override
         public void run() {
             Log.d("max timeout", String.valueOf(maxTimeout));
-            flushBufferAndSendAverage();
+            // Khi có fix, ReportingPolicy đã gửi theo thời gian trên luồng xử lý fix; ở đây chỉ gửi nếu quá hạn
+            if (reportingPolicy.isHeartbeatDue(System.currentTimeMillis())) {
+                flushBufferAndSendAverage();
+            }
             // Lên lịch chạy lại sau 30 giây
             averageHandler.postDelayed(this, maxTimeout);
         }
@@ -83,9 +97,12 @@ public class MainActivity extends AppCompatActivity {
             if (maxTimeout != mqttHandler.maxTimeout
                     || maxDistance != mqttHandler.maxDistance
                     || !Objects.equals(province, mqttHandler.province)
-                    || isGeofenceEnable != mqttHandler.isGeofenceEnable) {
+                    || isGeofenceEnable != mqttHandler.isGeofenceEnable
+                    || reportTurnAngle != mqttHandler.reportTurnAngle) {
                 maxTimeout = mqttHandler.maxTimeout;
                 maxDistance = mqttHandler.maxDistance;
+                reportTurnAngle = mqttHandler.reportTurnAngle;
+                reportingPolicy.setThresholds(maxDistance, maxTimeout, reportTurnAngle);
                 province = mqttHandler.province;
                 isGeofenceEnable = mqttHandler.isGeofenceEnable;
                 Log.d("AttributesUpdate", "Updated maxTimeout: " + maxTimeout + ", maxDistance: " + maxDistance);
@@ -113,6 +130,9 @@ public class MainActivity extends AppCompatActivity {
         mqttHandler = new MqttHandler(this);
 //        mqttHandler.sendInitDevice();
         localStorageManager = new LocalStorageManager(this);
+        // Nạp ranh giới tỉnh trên luồng nền để lần kiểm tra geofence đầu tiên không phải chờ
+        BoundaryStore.getInstance(this).preload();
+        geofenceTracker = new GeofenceTracker(BoundaryStore.getInstance(this));
 
         // Ánh xạ các TextView từ layout
         txtCoordinates = findViewById(R.id.txtCoordinates);
@@ -122,7 +142,13 @@ public class MainActivity extends AppCompatActivity {
         // Khởi tạo các đối tượng UART và xử lý NMEA
         uartReader = new UartReader();
         nmeaProcessor = new NMEAProcessor();
-        nmeaHandler = new NMEAHandler();
+        nmeaHandler = new NMEAHandler(this::handleFix);
+        gnssDemultiplexer = new GNSSStreamDemultiplexer(nmeaProcessor);
+        gnssDemultiplexer.registerNmeaHandler(null, "RMC", this::handleNmeaSentence);
+        gnssDemultiplexer.registerNmeaHandler(null, "GGA", this::handleNmeaSentence);
+        gnssDemultiplexer.registerNmeaHandler(null, "GNS", this::handleNmeaSentence);
+        gnssDemultiplexer.registerNmeaHandler(null, "VTG", this::handleNmeaSentence);
+        gnssDemultiplexer.registerUbxHandler(0x06, 0x3E, this::handleCfgGnssMessage); // UBX-CFG-GNSS
 
         // Thiết lập dịch vụ định vị của Android
         locationManager = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
@@ -165,6 +191,7 @@ public class MainActivity extends AppCompatActivity {
         // Mở cổng UART và bắt đầu đọc dữ liệu NMEA
         if (uartReader.openUart("/dev/ttyHSL0")) {
             Log.d("MainActivity", "UART opened successfully");
+            startProcessingFixes();
             startReadingData();
         } else {
             Log.e("MainActivity", "Unable to open UART");
@@ -200,21 +227,12 @@ public class MainActivity extends AppCompatActivity {
             mqttHandler.sendGpsStatusAttribute(gpsStatus);
             if (lastSendDeviceLat != 0.0d && lastSendDeviceLon != 0.0d) {
                 double distance = LocationUtils.calculateDistance(deviceLat, deviceLon, lastSendDeviceLat, lastSendDeviceLon);
-                mqttHandler.sendDistanceTelemetry((float) distance);
+                mqttHandler.sendDistanceTelemetry((float) distance, currentTimestamp);
                 speed = (float) (distance / timeDifference);
             }
-            mqttHandler.sendLocationTelemetry(deviceLat, deviceLon, speed,MqttHandler.DEVICE_LOCATION);
+            mqttHandler.sendLocationTelemetry(deviceLat, deviceLon, speed,MqttHandler.DEVICE_LOCATION, currentTimestamp);
             if (mqttHandler.isGeofenceEnable && province != null) {
-                LatLng point = new LatLng(deviceLat, deviceLon);
-                boolean isNowOutside = !GetBoundary.isPointInProvince(MainActivity.this, point, province);
-                Log.d("MqttHandler", String.valueOf(isNowOutside));
-                if (isNowOutside && !isOutside) {
-                    mqttHandler.sendOutsideAttribute(true);
-                    isOutside = true;
-                } else if (!isNowOutside && isOutside) {
-                    mqttHandler.sendOutsideAttribute(false);
-                    isOutside = false;
-                }
+                updateProvinceGeofence(deviceLat, deviceLon);
             }
         }
         lastSendDeviceLat = deviceLat;
@@ -242,82 +260,53 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
-    // Phương thức tính trung bình và gửi tọa độ, sau đó cập nhật lastSentAvg
+    // Gửi vị trí đã làm mượt gần nhất và odometer, sau đó ghi nhận lần báo cáo. Khi mất mạng mẫu vẫn
+    // đi qua hàng đợi MQTT trên đĩa (giữ mốc thời gian của fix) và được gửi khi kết nối lại.
     private void flushBufferAndSendAverage() {
-        if (isNetworkAvailable()) {
 //            if (gpsStatus != GpsState.UBLOX_GPS) {
 //                mqttHandler.sendGpsStatusAttribute(gps);
 //                lastSentGpsStatus = gpsStatus;
 //            }
-            if (!isNetworkAvailable) {
-                localStorageManager.syncLocationLogs(mqttHandler);
-                isNetworkAvailable = isNetworkAvailable();
-            }
-            if (nmeaHandler.position.hasGpsSignal) {
-                float lat = nmeaHandler.position.lat;
-                float lon = nmeaHandler.position.lon;
-                float speed = nmeaHandler.position.velocity * 1.852f;
-                mqttHandler.sendLocationTelemetry(lat, lon, speed, MqttHandler.UBLOX_LOCATION);
-                runOnUiThread(() -> {
-                    txtCoordinates.setText(String.format("Avg Lat: %.6f\nAvg Lon: %.6f", lat, lon));
-                });
-                if (mqttHandler.isGeofenceEnable && province != null) {
-                    LatLng point = new LatLng(lat, lon);
-                    boolean isNowOutside = !GetBoundary.isPointInProvince(this, point, province);
-                    if (isNowOutside && !isOutside) {
-                        mqttHandler.sendOutsideAttribute(true);
-                        isOutside = true;
-                    } else if (!isNowOutside && isOutside) {
-                        mqttHandler.sendOutsideAttribute(false);
-                        isOutside = false;
-                    }
-                }
-                lastSentLat = lat;
-                lastSentLon = lon;
-                Log.d("AverageTelemetry", "Processed averaged coordinates: " + lat + ", " + lon);
-                if (gpsStatus != GpsState.UBLOX_GPS) {
-                    gpsStatus = GpsState.UBLOX_GPS;
-                    mqttHandler.sendGpsStatusAttribute(gpsStatus);
-                }
-            }
-        } else {
-            if (nmeaHandler.position.hasGpsSignal) {
-                float lat = nmeaHandler.position.lat;
-                float lon = nmeaHandler.position.lon;
-                localStorageManager.logLocationData(lat, lon, System.currentTimeMillis());
-                isNetworkAvailable = isNetworkAvailable();
+        boolean networkAvailable = isNetworkAvailable();
+        // Chỉ còn để gửi bù log offline ghi trước khi vị trí đi qua hàng đợi MQTT
+        if (networkAvailable && !isNetworkAvailable) {
+            localStorageManager.syncLocationLogs(mqttHandler);
+        }
+        isNetworkAvailable = networkAvailable;
+        GnssFix fix = smoothedFix;
+        if (fix != null && fix.hasGpsSignal) {
+            double lat = fix.lat;
+            double lon = fix.lon;
+            float speed = fix.getSpeedKmh();
+            long timestamp = fix.utcMillis > 0 ? fix.utcMillis : System.currentTimeMillis();
+            mqttHandler.sendLocationTelemetry(lat, lon, speed, MqttHandler.UBLOX_LOCATION, timestamp);
+            mqttHandler.sendOdometerTelemetry(reportingPolicy.getOdometerMeters(), timestamp);
+            reportingPolicy.markReported(fix.lat, fix.lon, fix.getSpeedMps(), fix.course, System.currentTimeMillis());
+            runOnUiThread(() -> {
+                txtCoordinates.setText(String.format("Avg Lat: %.6f\nAvg Lon: %.6f", lat, lon));
+            });
+            Log.d("AverageTelemetry", "Processed averaged coordinates: " + lat + ", " + lon);
+            if (gpsStatus != GpsState.UBLOX_GPS) {
+                gpsStatus = GpsState.UBLOX_GPS;
+                mqttHandler.sendGpsStatusAttribute(gpsStatus);
             }
         }
     }
 
     private void startReadingData() {
         readThread = new Thread(() -> {
+            byte[] readBuffer = new byte[UartReader.READ_BUFFER_SIZE];
             while (!Thread.currentThread().isInterrupted()) {
                 try {
-                    int b = uartReader.read();
-                    if (b >= 0) {
-                        String sentence = nmeaProcessor.processIncomingByte(b);
-                        if (sentence != null) {
-                            Log.d("sentence", sentence);
-                            nmeaHandler.parse(sentence);
-                            Log.d("hasGpsSignal", String.valueOf(nmeaHandler.position.hasGpsSignal));
-                            if (nmeaHandler.position.hasGpsSignal) {
-                                float lat = nmeaHandler.position.lat;
-                                float lon = nmeaHandler.position.lon;
-                                // Nếu đã có tọa độ trung bình được gửi trước đó thì kiểm tra sự thay đổi vị trí
-                                if (lastSentLat >= 0 && lastSentLon >= 0) {
-                                    float[] results = new float[1];
-                                    Location.distanceBetween(lastSentLat, lastSentLon, lat, lon, results);
-                                    float distance = results[0];
-                                    mqttHandler.sendDistanceTelemetry(distance);
-                                    if (distance >= maxDistance) {
-                                        // Nếu thay đổi ≥ maxDistance, gửi ngay trung bình các tọa độ trong buffer
-                                        flushBufferAndSendAverage();
-                                    }
-                                }
-                            }
-                        }
+                    int count = uartReader.read(readBuffer);
+                    if (count > 0) {
+                        gnssDemultiplexer.processIncomingBytes(readBuffer, 0, count);
+                    } else if (count < 0) {
+                        // Lỗi hoặc hết dữ liệu: nghỉ một chút thay vì quay vòng liên tục
+                        Thread.sleep(READ_RETRY_DELAY_MS);
                     }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 } catch (Exception e) {
                     e.printStackTrace();
                 }
@@ -326,6 +315,115 @@ public class MainActivity extends AppCompatActivity {
         readThread.start();
     }
 
+    // Cập nhật số hệ thống GNSS đang bật khi module trả về cấu hình UBX-CFG-GNSS
+    private void handleCfgGnssMessage(int msgClass, int msgId, byte[] frame, int offset, int length) {
+        byte[] message = new byte[length];
+        System.arraycopy(frame, offset, message, 0, length);
+        try {
+            int enabledCount = new GNSSParser(message).getEnabledCount();
+            runOnUiThread(() -> txtSatellitesEnabled.setText("Enabled GNSS systems: " + enabledCount));
+        } catch (Exception e) {
+            Log.e("MainActivity", "Error parsing UBX-CFG-GNSS: " + e.getMessage());
+        }
+    }
+
+    private void handleNmeaSentence(byte[] buffer, int offset, int length) {
+        nmeaHandler.parse(buffer, offset, length);
+    }
+
+    // Gọi trên luồng đọc UART một lần cho mỗi epoch đo; chỉ đẩy vào hàng đợi, không làm việc nặng
+    private void handleFix(GnssFix fix) {
+        fixQueue.offer(fix);
+    }
+
+    private void startProcessingFixes() {
+        fixProcessingThread = new Thread(() -> {
+            long reportedDrops = 0;
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    GnssFix fix = fixQueue.take(FIX_QUEUE_POLL_TIMEOUT_NS);
+                    if (fix != null) {
+                        processFix(fix);
+                    }
+                    long drops = fixQueue.getDroppedCount();
+                    if (drops != reportedDrops) {
+                        Log.w("MainActivity", "Fix queue overflow, dropped " + drops + " fixes so far");
+                        reportedDrops = drops;
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        fixProcessingThread.start();
+    }
+
+    // Chạy trên luồng xử lý fix, một lần cho mỗi epoch đo
+    private void processFix(GnssFix rawFix) {
+        Log.d("hasGpsSignal", String.valueOf(rawFix.hasGpsSignal));
+        if (!rawFix.hasGpsSignal) {
+            // Mất tín hiệu: không gửi lại vị trí đã lọc cũ và để vị trí của thiết bị tiếp quản
+            smoothedFix = rawFix;
+            fixFilter.reset();
+            if (gpsStatus == GpsState.UBLOX_GPS) {
+                gpsStatus = GpsState.NO_SIGNAL;
+                mqttHandler.sendGpsStatusAttribute(gpsStatus);
+            }
+        } else {
+            // Vùng và báo cáo dùng vị trí/vận tốc đã lọc để rung tọa độ lúc đứng yên không gây sự kiện giả
+            GnssFix fix = fixFilter.update(rawFix);
+            smoothedFix = fix;
+            String detectedProvince = BoundaryStore.getInstance(this).findProvince(fix.lat, fix.lon);
+            if (!Objects.equals(detectedProvince, currentProvince)) {
+                currentProvince = detectedProvince;
+                mqttHandler.sendCurrentProvinceAttribute(detectedProvince);
+            }
+            long timestamp = fix.utcMillis > 0 ? fix.utcMillis : System.currentTimeMillis();
+            if (mqttHandler.isGeofenceEnable && province != null) {
+                updateProvinceGeofence(fix.lat, fix.lon);
+            }
+            mqttHandler.fenceRegistry.evaluate(fix.lat, fix.lon, timestamp, this::handleFenceEvent);
+            // Gửi vị trí khi đổi hướng, đi đủ xa, đổi trạng thái di chuyển hoặc quá thời gian;
+            // quãng đường được gửi dạng odometer kèm mỗi lần báo cáo thay vì theo từng fix
+            if (reportingPolicy.onFix(fix.lat, fix.lon, fix.getSpeedMps(), fix.course, System.currentTimeMillis())) {
+                flushBufferAndSendAverage();
+            }
+        }
+    }
+
+    // Gọi từ FenceRegistry.evaluate trên luồng xử lý fix khi một sự kiện vùng đã được xác nhận
+    private void handleFenceEvent(Fence fence, GeofenceEventType type, long timestamp) {
+        Log.d("MainActivity", "Fence " + fence.id + " " + type + " at " + timestamp);
+        mqttHandler.sendGeofenceEventTelemetry(fence.id, type, timestamp);
+    }
+
+    // Kiểm tra tỉnh được giám sát qua bộ lọc nhiễu; isOutside chỉ đổi khi có ENTER/EXIT đã xác nhận.
+    // Gọi từ luồng xử lý fix (GNSS) và luồng chính (vị trí thiết bị) nên cần đồng bộ. Hai nguồn có mốc
+    // thời gian khác nhau (UTC của fix và đồng hồ thiết bị) nên bộ lọc luôn dùng đồng hồ thiết bị.
+    private synchronized void updateProvinceGeofence(double lat, double lon) {
+        long timestamp = System.currentTimeMillis();
+        if (provinceDebouncer == null || !Objects.equals(province, debouncedProvince)) {
+            debouncedProvince = province;
+            provinceDebouncer = new GeofenceDebouncer(!isOutside);
+        }
+        boolean inside = geofenceTracker.isInside(province, lat, lon);
+        GeofenceDebouncer.Config config = mqttHandler.getGeofenceDebounceConfig();
+        double borderDistance = provinceDebouncer.needsBorderDistance(inside, config)
+                ? geofenceTracker.getBorderDistance() : 0;
+        GeofenceEventType event = provinceDebouncer.update(inside, borderDistance, timestamp, config);
+        if (event == null) {
+            return;
+        }
+        mqttHandler.sendGeofenceEventTelemetry(province, event, provinceDebouncer.getEventTime());
+        if (event == GeofenceEventType.EXIT && !isOutside) {
+            mqttHandler.sendOutsideAttribute(true);
+            isOutside = true;
+        } else if (event == GeofenceEventType.ENTER && isOutside) {
+            mqttHandler.sendOutsideAttribute(false);
+            isOutside = false;
+        }
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
@@ -333,11 +431,16 @@ public class MainActivity extends AppCompatActivity {
         if (readThread != null && readThread.isAlive()) {
             readThread.interrupt();
         }
+        if (fixProcessingThread != null && fixProcessingThread.isAlive()) {
+            fixProcessingThread.interrupt();
+        }
         if (locationManager != null && locationListener != null) {
             locationManager.removeUpdates(locationListener);
         }
         // Hủy các callback của tác vụ trung bình
         averageHandler.removeCallbacks(averageAndSendRunnable);
+        mqttHandler.flushTelemetry();
+        mqttHandler.close();
     }
 
     @Override
@@ -2,6 +2,12 @@ package com.example.datn;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkInfo;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
 import android.util.Log;
 
 import com.google.android.gms.maps.model.LatLng;
@@ -14,9 +20,14 @@ import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
@@ -30,46 +41,121 @@ public class MqttHandler {
     private final Context context;
     private MqttAndroidClient mqttClient;
     private MqttConnectOptions mqttConnectOptions;
-    private boolean isReconnecting = false;
+    // Trạng thái kết nối, chỉ đổi trong các phương thức synchronized bên dưới
+    private ConnectionState connectionState = ConnectionState.DISCONNECTED;
+    private final ReconnectBackoff reconnectBackoff = new ReconnectBackoff(RECONNECT_BASE_DELAY, RECONNECT_MAX_DELAY);
+    private boolean networkAvailable = true;
+    private ConnectivityManager.NetworkCallback networkCallback;
 
     public int maxTimeout = 10000;
     public int maxDistance = 10;
+    // Góc đổi hướng (độ) khiến vị trí được gửi ngay, xem ReportingPolicy
+    public double reportTurnAngle = ReportingPolicy.DEFAULT_TURN_DEGREES;
     public boolean isGeofenceEnable = false;
     public String province = "Hà Nội";
+    // Mức chi tiết của attribute provinceBoundary do server chọn (0 = đầy đủ, xem ProvinceBoundaryData)
+    public int boundaryLevel = DEFAULT_BOUNDARY_LEVEL;
+    // Lọc nhiễu sự kiện geofence: độ trễ theo khoảng cách (m), số fix xác nhận liên tiếp, thời gian dừng (ms)
+    public double geofenceHysteresis = 20;
+    public int geofenceConfirmFixes = 3;
+    public long geofenceDwellTime = 300000;
+    private volatile GeofenceDebouncer.Config geofenceDebounceConfig =
+            new GeofenceDebouncer.Config(geofenceHysteresis, geofenceConfirmFixes, geofenceDwellTime);
+    // Các vùng geofence tùy ý (kho, điểm khách hàng, vùng cấm) nhận từ shared attribute "fences"
+    public final FenceRegistry fenceRegistry = new FenceRegistry();
+    // Gom telemetry: gửi khi đủ số mẫu hoặc khi mẫu cũ nhất đã chờ quá thời gian (ms)
+    public int telemetryBatchSize = DEFAULT_TELEMETRY_BATCH_SIZE;
+    public long telemetryBatchDelay = DEFAULT_TELEMETRY_BATCH_DELAY;
 
     public static final int DEVICE_LOCATION = 1;
     public static final int UBLOX_LOCATION = 2;
+    public static final int DEFAULT_BOUNDARY_LEVEL = 2;
+    public static final int DEFAULT_TELEMETRY_BATCH_SIZE = 20;
+    public static final long DEFAULT_TELEMETRY_BATCH_DELAY = 30000;
+    public static final double DEFAULT_BATTERY_THRESHOLD = 2;
+    private static final long ATTRIBUTE_FLUSH_DELAY = 1000;
+
+    // Các làn gửi theo thứ tự ưu tiên giảm dần
+    public static final int LANE_ALERT = 0;      // sự kiện geofence, isOutside
+    public static final int LANE_LIVE = 1;       // vị trí hiện tại, tỉnh hiện tại, cấu hình thiết bị
+    public static final int LANE_BULK = 2;       // ranh giới tỉnh, dữ liệu gửi bù
+    public static final int LANE_DIAGNOSTIC = 3; // pin, trạng thái GPS
+    private static final long RECONNECT_BASE_DELAY = 1000;
+    private static final long RECONNECT_MAX_DELAY = 120000;
 
     private float lastSentLat = 0.0f;
     private float lastSentLon = 0.0f;
+    // Bộ đệm JSON dùng chung cho mọi payload gửi đi, khóa bằng chính nó
+    private final JsonWriter jsonWriter = new JsonWriter(1024);
+    private final TelemetryBatch telemetryBatch = new TelemetryBatch();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Mọi thao tác trên hàng đợi (mở, ghi + fsync, xác nhận + dồn file, xả) chạy tuần tự trên luồng này;
+    // luồng chính và callback của Paho chỉ post việc sang
+    private final HandlerThread ioThread = new HandlerThread("mqtt-io");
+    private final Handler ioHandler;
+    private final Runnable batchFlushRunnable = this::flushTelemetry;
+    // Mỗi làn có hàng đợi trên đĩa riêng. Tốc độ giới hạn số message tồn đọng dồn lên broker sau khi
+    // kết nối lại; tổng số message chờ PUBACK của các làn nằm trong maxInflight của client.
+    private final PublishLane[] lanes = {
+            new PublishLane("alert", 1, 4, 50, 256 * 1024),
+            new PublishLane("live", 1, 4, 10, 1024 * 1024),
+            new PublishLane("bulk", 1, 2, 2, 2 * 1024 * 1024),
+            // QoS 1: AttributeShadow chỉ coi giá trị là đã gửi khi có PUBACK thật từ broker
+            new PublishLane("diagnostic", 1, 2, 1, 256 * 1024),
+    };
+    // Attribute chẩn đoán (pin, trạng thái GPS) chỉ gửi phần thay đổi, gộp trong ATTRIBUTE_FLUSH_DELAY
+    private final AttributeShadow attributeShadow = new AttributeShadow();
+    private final Runnable attributeFlushRunnable = this::flushAttributes;
+    private boolean attributeFlushScheduled = false;
+    // Vị trí gửi bù từ log offline đi làn BULK, tách khỏi batch trực tiếp
+    private final TelemetryBatch backfillBatch = new TelemetryBatch();
+    private final Runnable drainRunnable = this::drainOutbound;
+    private final Runnable reconnectRunnable = this::connect;
 
 
 
 
     public MqttHandler(Context context) {
         this.context = context.getApplicationContext();
+        ioThread.start();
+        ioHandler = new Handler(ioThread.getLooper());
+        // Việc đầu tiên của luồng io nên message gửi trong lúc mở (đọc và kiểm tra CRC tới vài MB) vẫn
+        // được ghi sau khi mở xong, đúng thứ tự
+        ioHandler.post(this::openLaneQueues);
+        attributeShadow.setThreshold("battery_level", DEFAULT_BATTERY_THRESHOLD);
+        fenceRegistry.setDebounceConfig(geofenceDebounceConfig);
         String clientId = UUID.randomUUID().toString();
         mqttClient = new MqttAndroidClient(context.getApplicationContext(), serverUri, clientId);
 
         mqttConnectOptions = new MqttConnectOptions();
         mqttConnectOptions.setCleanSession(true);
         mqttConnectOptions.setUserName(deviceToken);
+        int maxInflight = 0;
+        for (PublishLane lane : lanes) {
+            maxInflight += lane.maxInFlight;
+        }
+        mqttConnectOptions.setMaxInflight(maxInflight);
 
         mqttClient.setCallback(new MqttCallbackExtended() {
             @Override
             public void connectComplete(boolean reconnect, String serverURI) {
                 Log.d(TAG, "Connected to ThingsBoard: " + serverURI);
+                onConnected();
                 // Sau khi kết nối thành công, subscribe vào topic attributes để nhận cập nhật
                 try {
                     mqttClient.subscribe(attributeTopic, 1);
                 } catch (MqttException e) {
                     Log.e(TAG, "Subscription to attributes failed: " + e.getMessage());
                 }
+                ioHandler.post(drainRunnable);
+                // Gửi lại attribute chẩn đoán chưa được xác nhận (VD: message gửi thẳng bị bỏ khi mất kết nối)
+                scheduleAttributeFlush();
             }
 
             @Override
             public void connectionLost(Throwable cause) {
                 Log.w(TAG, "Connection lost: " + (cause != null ? cause.getMessage() : "Unknown"));
+                onDisconnected();
             }
 
             @Override
@@ -87,6 +173,18 @@ public class MqttHandler {
                             maxTimeout = json.getInt("max_timeout");
                             Log.d(TAG, "Updated maxTimeout: " + maxTimeout);
                         }
+                        if (json.has("report_turn_angle")) {
+                            reportTurnAngle = json.getDouble("report_turn_angle");
+                            Log.d(TAG, "Updated reportTurnAngle: " + reportTurnAngle);
+                        }
+                        if (json.has("boundary_level")) {
+                            boundaryLevel = json.getInt("boundary_level");
+                            // Nếu cùng message có isGeofenceEnable/provinces thì ranh giới được gửi ở dưới
+                            if (isGeofenceEnable && !json.has("isGeofenceEnable") && !json.has("provinces")) {
+                                sendBoundaryAttribute(GetBoundary.getBoundaryForProvince(context, province, boundaryLevel));
+                            }
+                            Log.d(TAG, "Updated boundaryLevel: " + boundaryLevel);
+                        }
                         if (json.has("isGeofenceEnable")) {
                             isGeofenceEnable = json.getBoolean("isGeofenceEnable");
                             if (isGeofenceEnable) {
@@ -95,7 +193,7 @@ public class MqttHandler {
                                     boolean isNowOutside = !GetBoundary.isPointInProvince(context, point, province);
                                     sendOutsideAttribute(isNowOutside);
                                 }
-                                sendBoundaryAttribute(GetBoundary.getBoundaryForProvince(context, province));
+                                sendBoundaryAttribute(GetBoundary.getBoundaryForProvince(context, province, boundaryLevel));
                             } else {
                                 sendBoundaryAttribute(null);
                             }
@@ -104,13 +202,48 @@ public class MqttHandler {
                         if (json.has("provinces")) {
                             province = json.getString("provinces");
                             if (isGeofenceEnable) {
-                                sendBoundaryAttribute(GetBoundary.getBoundaryForProvince(context, province));
-                                Log.d("update boundary", GetBoundary.getBoundaryForProvince(context, province).toString());
+                                sendBoundaryAttribute(GetBoundary.getBoundaryForProvince(context, province, boundaryLevel));
                             } else {
                                 sendBoundaryAttribute(null);
                             }
                             Log.d(TAG, "Updated province: " + province);
                         }
+                        if (json.has("geofence_hysteresis") || json.has("geofence_confirm_fixes")
+                                || json.has("geofence_dwell_time")) {
+                            geofenceHysteresis = json.optDouble("geofence_hysteresis", geofenceHysteresis);
+                            geofenceConfirmFixes = json.optInt("geofence_confirm_fixes", geofenceConfirmFixes);
+                            geofenceDwellTime = json.optLong("geofence_dwell_time", geofenceDwellTime);
+                            geofenceDebounceConfig = new GeofenceDebouncer.Config(
+                                    geofenceHysteresis, geofenceConfirmFixes, geofenceDwellTime);
+                            fenceRegistry.setDebounceConfig(geofenceDebounceConfig);
+                            Log.d(TAG, "Updated geofence debounce: " + geofenceHysteresis + " m, "
+                                    + geofenceConfirmFixes + " fixes, " + geofenceDwellTime + " ms");
+                        }
+                        if (json.has("telemetry_batch_size") || json.has("telemetry_batch_delay")) {
+                            telemetryBatchSize = Math.max(1, json.optInt("telemetry_batch_size", telemetryBatchSize));
+                            telemetryBatchDelay = json.optLong("telemetry_batch_delay", telemetryBatchDelay);
+                            Log.d(TAG, "Updated telemetry batch: " + telemetryBatchSize + " samples, "
+                                    + telemetryBatchDelay + " ms");
+                        }
+                        if (json.has("battery_threshold")) {
+                            synchronized (attributeShadow) {
+                                attributeShadow.setThreshold("battery_level", json.getDouble("battery_threshold"));
+                            }
+                            Log.d(TAG, "Updated battery threshold: " + json.getDouble("battery_threshold"));
+                        }
+                        if (json.has("fences")) {
+                            JSONArray fencesJson = json.getJSONArray("fences");
+                            List<Fence> fences = new ArrayList<>(fencesJson.length());
+                            for (int i = 0; i < fencesJson.length(); i++) {
+                                try {
+                                    fences.add(Fence.fromJson(fencesJson.getJSONObject(i)));
+                                } catch (JSONException e) {
+                                    Log.e(TAG, "Skipping invalid fence: " + e.getMessage());
+                                }
+                            }
+                            fenceRegistry.setFences(fences);
+                            Log.d(TAG, "Updated fences: " + fences.size());
+                        }
                     } catch (JSONException e) {
                         Log.e(TAG, "Failed to parse attribute JSON: " + e.getMessage());
                     }
@@ -124,83 +257,339 @@ public class MqttHandler {
 
         });
 
+        registerNetworkCallback();
         connect();
         sendInitDevice();
     }
 
-    public void connect() {
+    private void openLaneQueues() {
+        long start = System.currentTimeMillis();
+        File dir = context.getFilesDir();
+        for (PublishLane lane : lanes) {
+            try {
+                lane.queue = new OutboundQueue(new File(dir, "mqtt_" + lane.name + ".queue"), lane.maxQueueBytes);
+            } catch (IOException e) {
+                Log.e(TAG, "Cannot open " + lane.name + " queue: " + e.getMessage());
+            }
+        }
+        Log.d(TAG, "Opened outbound queues in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    public GeofenceDebouncer.Config getGeofenceDebounceConfig() {
+        return geofenceDebounceConfig;
+    }
+
+    public ConnectionState getConnectionState() {
+        return connectionState;
+    }
+
+    /**
+     * Kết nối ngay nếu chưa kết nối và không có lần kết nối nào đang chạy. Khi không có mạng,
+     * chờ NetworkCallback báo có mạng thay vì thử kết nối.
+     */
+    public synchronized void connect() {
+        if (connectionState == ConnectionState.CONNECTING || connectionState == ConnectionState.CONNECTED) {
+            return;
+        }
+        mainHandler.removeCallbacks(reconnectRunnable);
+        if (!networkAvailable) {
+            setConnectionState(ConnectionState.WAITING_FOR_NETWORK);
+            return;
+        }
+        setConnectionState(ConnectionState.CONNECTING);
         try {
             mqttClient.connect(mqttConnectOptions, null, new IMqttActionListener() {
                 @Override
                 public void onSuccess(IMqttToken asyncActionToken) {
                     Log.d(TAG, "Connected to ThingsBoard");
+                    onConnected();
                 }
 
                 @Override
                 public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
                     Log.e(TAG, "Connection failed: " + exception.getMessage());
+                    onConnectFailed();
                 }
             });
         } catch (MqttException e) {
-            e.printStackTrace();
+            Log.e(TAG, "Connection failed: " + e.getMessage());
+            onConnectFailed();
+        }
+    }
+
+    /**
+     * Hủy theo dõi mạng và các lần kết nối lại đã hẹn. Các message đã post sang luồng io vẫn được ghi
+     * vào hàng đợi trước khi luồng dừng.
+     */
+    public synchronized void close() {
+        mainHandler.removeCallbacks(reconnectRunnable);
+        mainHandler.removeCallbacks(batchFlushRunnable);
+        ioHandler.removeCallbacks(drainRunnable);
+        ioHandler.removeCallbacks(attributeFlushRunnable);
+        ioThread.quitSafely();
+        if (networkCallback != null) {
+            ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+            cm.unregisterNetworkCallback(networkCallback);
+            networkCallback = null;
+        }
+    }
+
+    private synchronized void onConnected() {
+        reconnectBackoff.reset();
+        setConnectionState(ConnectionState.CONNECTED);
+    }
+
+    private synchronized void onConnectFailed() {
+        setConnectionState(ConnectionState.DISCONNECTED);
+        scheduleReconnect();
+    }
+
+    // Mất kết nối: các message đang chờ PUBACK sẽ được gửi lại sau khi kết nối lại
+    private synchronized void onDisconnected() {
+        ioHandler.post(() -> {
+            for (PublishLane lane : lanes) {
+                if (lane.queue != null) {
+                    lane.queue.releaseInFlight();
+                }
+            }
+        });
+        if (connectionState == ConnectionState.CONNECTED) {
+            setConnectionState(ConnectionState.DISCONNECTED);
+            scheduleReconnect();
+        }
+    }
+
+    private void scheduleReconnect() {
+        if (!networkAvailable) {
+            setConnectionState(ConnectionState.WAITING_FOR_NETWORK);
+            return;
+        }
+        long delay = reconnectBackoff.nextDelay();
+        setConnectionState(ConnectionState.BACKOFF);
+        mainHandler.removeCallbacks(reconnectRunnable);
+        mainHandler.postDelayed(reconnectRunnable, delay);
+        Log.d(TAG, "Reconnect attempt " + reconnectBackoff.getAttempts() + " in " + delay + " ms");
+    }
+
+    // Gửi message khi chưa kết nối: chỉ kết nối nếu chưa có lần kết nối nào đang chạy hoặc đã hẹn
+    private synchronized void requestConnect() {
+        if (connectionState == ConnectionState.DISCONNECTED) {
+            connect();
+        }
+    }
+
+    private void setConnectionState(ConnectionState state) {
+        if (connectionState != state) {
+            Log.d(TAG, "Connection state: " + connectionState + " -> " + state);
+            connectionState = state;
+        }
+    }
+
+    private void registerNetworkCallback() {
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (cm == null) {
+            return;
+        }
+        NetworkInfo activeNetwork = cm.getActiveNetworkInfo();
+        networkAvailable = activeNetwork != null && activeNetwork.isConnected();
+        networkCallback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                onNetworkAvailable();
+            }
+
+            @Override
+            public void onLost(Network network) {
+                onNetworkLost();
+            }
+        };
+        cm.registerDefaultNetworkCallback(networkCallback);
+    }
+
+    // Có mạng trở lại: bỏ thời gian chờ còn lại và kết nối ngay
+    private synchronized void onNetworkAvailable() {
+        networkAvailable = true;
+        if (connectionState == ConnectionState.WAITING_FOR_NETWORK || connectionState == ConnectionState.BACKOFF) {
+            reconnectBackoff.reset();
+            setConnectionState(ConnectionState.DISCONNECTED);
+            mainHandler.removeCallbacks(reconnectRunnable);
+            mainHandler.post(reconnectRunnable);
+        }
+    }
+
+    private synchronized void onNetworkLost() {
+        networkAvailable = false;
+        if (connectionState == ConnectionState.BACKOFF) {
+            mainHandler.removeCallbacks(reconnectRunnable);
+            setConnectionState(ConnectionState.WAITING_FOR_NETWORK);
+        }
+    }
+
+    // Ghi message vào hàng đợi của làn (trên luồng io) rồi gửi theo thứ tự ưu tiên khi có kết nối
+    private void sendMqttMessage(byte[] payload, String topic, int laneIndex) {
+        ioHandler.post(() -> {
+            if (appendOrPublish(lanes[laneIndex], topic, payload) >= 0) {
+                drainOutbound();
+            }
+        });
+    }
+
+    // Ghi vào hàng đợi mà chưa gửi; nếu không ghi được thì gửi thẳng và trả về -1. Chỉ gọi trên luồng io.
+    private long appendOrPublish(PublishLane lane, String topic, byte[] payload) {
+        long seq = lane.queue != null ? lane.queue.append(topic, payload) : -1;
+        if (seq < 0) {
+            publish(lane, -1, topic, payload);
         }
+        return seq;
     }
 
-    private void sendMqttMessage(String payload, String topic) {
+    /**
+     * Gửi các message đang chờ: mỗi lần chọn làn ưu tiên cao nhất còn message, còn chỗ trong cửa sổ
+     * chờ PUBACK và còn token. Nếu chỉ còn các làn hết token thì hẹn lần xả tiếp theo. Chỉ gọi trên luồng io.
+     */
+    private void drainOutbound() {
         if (!mqttClient.isConnected()) {
-            Log.w(TAG, "MQTT not connected. Trying to reconnect...");
-            if (!isReconnecting) {
-                reconnect(() -> sendMqttMessage(payload, topic));
+            requestConnect();
+            return;
+        }
+        long wait = Long.MAX_VALUE;
+        boolean sent = true;
+        while (sent) {
+            sent = false;
+            long now = System.currentTimeMillis();
+            for (PublishLane lane : lanes) {
+                if (lane.queue == null || !lane.queue.hasUnsent(lane.maxInFlight)) {
+                    continue;
+                }
+                long laneWait = lane.takeToken(now);
+                if (laneWait > 0) {
+                    wait = Math.min(wait, laneWait);
+                    continue;
+                }
+                OutboundQueue.Message message = lane.queue.nextUnsent(lane.maxInFlight);
+                if (message == null) {
+                    lane.returnToken();
+                    continue;
+                }
+                publish(lane, message.seq, message.topic, message.payload);
+                sent = true;
+                // Xét lại từ làn ưu tiên cao nhất
+                break;
             }
+        }
+        if (wait != Long.MAX_VALUE) {
+            ioHandler.removeCallbacks(drainRunnable);
+            ioHandler.postDelayed(drainRunnable, wait);
+        }
+    }
+
+    // seq < 0: message không nằm trong hàng đợi, gửi một lần và không theo dõi
+    private void publish(PublishLane lane, long seq, String topic, byte[] payload) {
+        if (seq < 0 && !mqttClient.isConnected()) {
+            Log.w(TAG, "MQTT not connected, dropping unqueued message");
+            requestConnect();
             return;
         }
-        MqttMessage message = new MqttMessage(payload.getBytes());
-        message.setQos(1);
+        MqttMessage message = new MqttMessage(payload);
+        message.setQos(lane.qos);
 
         try {
             mqttClient.publish(topic, message, null, new IMqttActionListener() {
                 @Override
                 public void onSuccess(IMqttToken asyncActionToken) {
-                    Log.d(TAG, "MQTT sent: " + payload + " at " + topic);
+                    Log.d(TAG, "MQTT sent " + lane.name + " #" + seq + ": "
+                            + new String(payload, StandardCharsets.UTF_8) + " at " + topic);
+                    if (seq >= 0) {
+                        ioHandler.post(() -> {
+                            lane.queue.ack(seq);
+                            if (lane == lanes[LANE_DIAGNOSTIC]) {
+                                synchronized (attributeShadow) {
+                                    attributeShadow.onAcked(seq);
+                                }
+                            }
+                            drainOutbound();
+                        });
+                    }
                 }
 
                 @Override
                 public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
                     Log.e(TAG, "Publish failed: " + exception.getMessage());
-                    if (exception.getMessage().contains("not connected") && !isReconnecting) {
-                        reconnect(() -> sendMqttMessage(payload, topic));
+                    if (seq >= 0) {
+                        ioHandler.post(() -> lane.queue.release(seq));
+                    }
+                    if (!mqttClient.isConnected()) {
+                        onDisconnected();
                     }
                 }
             });
         } catch (MqttException e) {
             e.printStackTrace();
+            if (seq >= 0) {
+                lane.queue.release(seq);
+            }
         }
     }
 
-    private void sendTelemetryMessage(String payload) {
-        sendMqttMessage(payload, telemetryTopic);
+    private void sendTelemetryMessage(byte[] payload, int lane) {
+        sendMqttMessage(payload, telemetryTopic, lane);
     }
 
-    private void sendAttributeMessage(String payload) {
-        sendMqttMessage(payload, attributeTopic);
+    private void sendAttributeMessage(byte[] payload, int lane) {
+        sendMqttMessage(payload, attributeTopic, lane);
     }
 
     public void sendLocationTelemetry (double lat, double lon, double speed, int mode) {
-        String payload;
-        switch (mode) {
-            case MqttHandler.DEVICE_LOCATION:
-                payload = String.format("{\"device latitude\": %.6f, \"device longitude\": %.6f, \"speed\": %.1f}", lat, lon, speed);
-                break;
-            case MqttHandler.UBLOX_LOCATION:
-                payload = String.format("{\"latitude\": %.6f, \"longitude\": %.6f, \"speed\": %.6f}", lat, lon, speed);
-                break;
-            default:
-                payload = "";
-                break;
+        sendLocationTelemetry(lat, lon, speed, mode, System.currentTimeMillis());
+    }
+
+    /**
+     * Thêm một mẫu vị trí vào batch telemetry với mốc thời gian của thiết bị.
+     */
+    public void sendLocationTelemetry(double lat, double lon, double speed, int mode, long timestamp) {
+        if (mode != MqttHandler.DEVICE_LOCATION && mode != MqttHandler.UBLOX_LOCATION) {
+            return;
+        }
+        int size;
+        synchronized (telemetryBatch) {
+            writeLocation(telemetryBatch.beginSample(timestamp), lat, lon, speed, mode);
+            size = telemetryBatch.endSample();
         }
         lastSentLat = (float) lat;
         lastSentLon = (float) lon;
-        sendTelemetryMessage(payload);
+        onTelemetrySampleAdded(size);
+    }
+
+    /**
+     * Thêm một vị trí cũ (gửi bù từ log offline) vào batch của làn BULK, để không chen trước dữ liệu trực tiếp.
+     * Batch được gửi khi đủ số mẫu hoặc khi gọi flushTelemetry().
+     */
+    public void sendLocationBackfill(double lat, double lon, double speed, int mode, long timestamp) {
+        if (mode != MqttHandler.DEVICE_LOCATION && mode != MqttHandler.UBLOX_LOCATION) {
+            return;
+        }
+        byte[] payload = null;
+        synchronized (backfillBatch) {
+            writeLocation(backfillBatch.beginSample(timestamp), lat, lon, speed, mode);
+            if (backfillBatch.endSample() >= telemetryBatchSize) {
+                payload = backfillBatch.drain();
+            }
+        }
+        if (payload != null) {
+            sendTelemetryMessage(payload, LANE_BULK);
+        }
+    }
+
+    private static void writeLocation(JsonWriter values, double lat, double lon, double speed, int mode) {
+        if (mode == MqttHandler.DEVICE_LOCATION) {
+            values.name("device latitude").value(lat, 6)
+                    .name("device longitude").value(lon, 6)
+                    .name("speed").value(speed, 1);
+        } else {
+            values.name("latitude").value(lat, 6)
+                    .name("longitude").value(lon, 6)
+                    .name("speed").value(speed, 6);
+        }
     }
 
 //    @SuppressLint("DefaultLocale")
@@ -248,41 +637,97 @@ public class MqttHandler {
 //    }
 
     public void sendDistanceTelemetry(float distance) {
-        if (!mqttClient.isConnected()) {
-            Log.w(TAG, "MQTT not connected. Trying to reconnect...");
-            if (!isReconnecting) {
-                reconnect(() -> sendDistanceTelemetry(distance));
-            }
-            return;
+        sendDistanceTelemetry(distance, System.currentTimeMillis());
+    }
+
+    public void sendDistanceTelemetry(float distance, long timestamp) {
+        int size;
+        synchronized (telemetryBatch) {
+            telemetryBatch.beginSample(timestamp)
+                    .name("distance").value(distance, 1);
+            size = telemetryBatch.endSample();
         }
-        String payload;
-        payload = String.format("{\"distance\": %.1f}", distance);
-        MqttMessage message = new MqttMessage(payload.getBytes());
-        message.setQos(1);
+        onTelemetrySampleAdded(size);
+    }
 
-        try {
-            mqttClient.publish(telemetryTopic, message, null, new IMqttActionListener() {
-                @Override
-                public void onSuccess(IMqttToken asyncActionToken) {
-                    Log.d(TAG, "Telemetry sent: " + payload);
-                }
+    /**
+     * Thêm tổng quãng đường đã đi (mét) vào batch telemetry, gửi kèm mỗi lần báo cáo vị trí.
+     */
+    public void sendOdometerTelemetry(double odometerMeters, long timestamp) {
+        int size;
+        synchronized (telemetryBatch) {
+            telemetryBatch.beginSample(timestamp)
+                    .name("odometer").value(odometerMeters, 1);
+            size = telemetryBatch.endSample();
+        }
+        onTelemetrySampleAdded(size);
+    }
 
-                @Override
-                public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
-                    Log.e(TAG, "Publish failed: " + exception.getMessage());
-                    if (exception.getMessage().contains("not connected") && !isReconnecting) {
-                        reconnect(() -> sendDistanceTelemetry(distance));
-                    }
-                }
-            });
-        } catch (MqttException e) {
-            e.printStackTrace();
+    // Gửi ngay khi đủ số mẫu; mẫu đầu tiên của batch hẹn giờ gửi theo ngưỡng thời gian
+    private void onTelemetrySampleAdded(int size) {
+        if (size >= telemetryBatchSize) {
+            flushTelemetry();
+        } else if (size == 1) {
+            mainHandler.postDelayed(batchFlushRunnable, telemetryBatchDelay);
+        }
+    }
+
+    /**
+     * Gửi ngay các mẫu telemetry đang chờ (trực tiếp và gửi bù), mỗi batch thành một message.
+     */
+    public void flushTelemetry() {
+        mainHandler.removeCallbacks(batchFlushRunnable);
+        byte[] payload;
+        synchronized (telemetryBatch) {
+            payload = telemetryBatch.drain();
+        }
+        if (payload != null) {
+            sendTelemetryMessage(payload, LANE_LIVE);
+        }
+        synchronized (backfillBatch) {
+            payload = backfillBatch.drain();
+        }
+        if (payload != null) {
+            sendTelemetryMessage(payload, LANE_BULK);
         }
     }
 
     public void sendBatteryAttribute(int batteryLevel, boolean isCharging) {
-        String payload = String.format("{\"battery_level\": %d, \"is_charging\": %s}", batteryLevel, isCharging);
-        sendAttributeMessage(payload);
+        synchronized (attributeShadow) {
+            attributeShadow.put("battery_level", batteryLevel);
+            attributeShadow.put("is_charging", isCharging);
+        }
+        scheduleAttributeFlush();
+    }
+
+    private void scheduleAttributeFlush() {
+        synchronized (attributeShadow) {
+            if (attributeFlushScheduled || !attributeShadow.hasChanges()) {
+                return;
+            }
+            attributeFlushScheduled = true;
+        }
+        ioHandler.postDelayed(attributeFlushRunnable, ATTRIBUTE_FLUSH_DELAY);
+    }
+
+    // Gửi các attribute chẩn đoán đã thay đổi so với giá trị broker đã xác nhận, gộp thành một message.
+    // Chạy trên luồng io nên hàng đợi đã mở xong và message nhận được seq để theo dõi PUBACK.
+    private void flushAttributes() {
+        synchronized (attributeShadow) {
+            attributeFlushScheduled = false;
+            if (!attributeShadow.hasChanges()) {
+                return;
+            }
+            byte[] payload;
+            synchronized (jsonWriter) {
+                jsonWriter.reset().beginObject();
+                attributeShadow.writeChanges(jsonWriter);
+                payload = jsonWriter.endObject().toByteArray();
+            }
+            // Ghi nhận seq trước khi gửi để PUBACK không đến trước markSent
+            attributeShadow.markSent(appendOrPublish(lanes[LANE_DIAGNOSTIC], attributeTopic, payload));
+        }
+        drainOutbound();
     }
 
 //    public void sendBatteryAttribute(int batteryLevel, boolean isCharging) {
@@ -318,8 +763,14 @@ public class MqttHandler {
 //    }
 
     public void sendOutsideAttribute(boolean isOutside) {
-        String payload = String.format("{\"isOutside\": %s}", isOutside);
-        sendAttributeMessage(payload);
+        byte[] payload;
+        synchronized (jsonWriter) {
+            payload = jsonWriter.reset().beginObject()
+                    .name("isOutside").value(isOutside)
+                    .endObject()
+                    .toByteArray();
+        }
+        sendAttributeMessage(payload, LANE_ALERT);
     }
 
 //    public void sendOutsideAttribute(boolean isOutside) {
@@ -357,11 +808,37 @@ public class MqttHandler {
 //        }
 //    }
 
+    public void sendCurrentProvinceAttribute(String currentProvince) {
+        byte[] payload;
+        synchronized (jsonWriter) {
+            payload = jsonWriter.reset().beginObject()
+                    .name("current_province").value(currentProvince)
+                    .endObject()
+                    .toByteArray();
+        }
+        sendAttributeMessage(payload, LANE_LIVE);
+    }
+
+    public void sendGeofenceEventTelemetry(String zoneId, GeofenceEventType type, long timestamp) {
+        byte[] payload;
+        synchronized (jsonWriter) {
+            payload = jsonWriter.reset().beginObject()
+                    .name("ts").value(timestamp)
+                    .name("values").beginObject()
+                    .name("geofence_zone").value(zoneId)
+                    .name("geofence_event").value(type.name())
+                    .endObject()
+                    .endObject()
+                    .toByteArray();
+        }
+        sendTelemetryMessage(payload, LANE_ALERT);
+    }
+
     public void sendGpsStatusAttribute(GpsState gpsState) {
-        String gpsStatus = gpsState.toString();
-        String payload = String.format("{\"gps_status\": \"%s\"}", gpsStatus);
-        Log.d("payload", payload);
-        sendAttributeMessage(payload);
+        synchronized (attributeShadow) {
+            attributeShadow.put("gps_status", gpsState.toString());
+        }
+        scheduleAttributeFlush();
     }
 
 //    public void sendGpsStatusAttribute(boolean gpsStatus) {
@@ -398,20 +875,27 @@ public class MqttHandler {
 //    }
 
     public void sendBoundaryAttribute(List<LatLng> provinceBoundary) {
-        StringBuilder payloadBuilder = new StringBuilder();
-        payloadBuilder.append("{\"provinceBoundary\":[");
-        if (provinceBoundary != null) {
-            for (int i = 0; i < provinceBoundary.size(); i++) {
-                LatLng point = provinceBoundary.get(i);
-                payloadBuilder.append(String.format("[%.6f,%.6f]", point.latitude, point.longitude));
-                if (i < provinceBoundary.size() - 1) {
-                    payloadBuilder.append(",");
+        int level = ProvinceBoundaryData.clampDetailLevel(boundaryLevel);
+        int decimals = ProvinceBoundaryData.DETAIL_LEVEL_DECIMALS[level];
+        byte[] payload;
+        synchronized (jsonWriter) {
+            jsonWriter.reset().beginObject()
+                    .name("provinceBoundary").beginArray();
+            if (provinceBoundary != null) {
+                for (int i = 0; i < provinceBoundary.size(); i++) {
+                    LatLng point = provinceBoundary.get(i);
+                    jsonWriter.beginArray()
+                            .value(point.latitude, decimals)
+                            .value(point.longitude, decimals)
+                            .endArray();
                 }
             }
+            payload = jsonWriter.endArray()
+                    .name("provinceBoundaryLevel").value(level)
+                    .endObject()
+                    .toByteArray();
         }
-        payloadBuilder.append("]}");
-        String payload = payloadBuilder.toString();
-        sendAttributeMessage(payload);
+        sendAttributeMessage(payload, LANE_BULK);
     }
 
 //    @SuppressLint("DefaultLocale")
@@ -462,10 +946,19 @@ public class MqttHandler {
 //    }
 
     public void sendInitDevice() {
-        String payload = String.format("{\"isGeofenceEnable\": %b, \"max_distance\": %d, \"max_timeout\": %d, \"provinces\": \"%s\", " +
-                        "\"isOutside\": %b, \"provinceBoundary\": %s}",
-                isGeofenceEnable, maxDistance, maxTimeout, province, false, "[]");
-        sendAttributeMessage(payload);
+        byte[] payload;
+        synchronized (jsonWriter) {
+            payload = jsonWriter.reset().beginObject()
+                    .name("isGeofenceEnable").value(isGeofenceEnable)
+                    .name("max_distance").value(maxDistance)
+                    .name("max_timeout").value(maxTimeout)
+                    .name("provinces").value(province)
+                    .name("isOutside").value(false)
+                    .name("provinceBoundary").beginArray().endArray()
+                    .endObject()
+                    .toByteArray();
+        }
+        sendAttributeMessage(payload, LANE_LIVE);
     }
 
 //    public void sendInitDevice() {
@@ -501,36 +994,4 @@ public class MqttHandler {
 //            e.printStackTrace();
 //        }
 //    }
-
-    private interface ReconnectCallback {
-        void onReconnected();
-    }
-
-    private void reconnect(ReconnectCallback callback) {
-        if (mqttClient.isConnected() || isReconnecting) {
-            return;
-        }
-
-        isReconnecting = true;
-
-        try {
-            mqttClient.connect(mqttConnectOptions, null, new IMqttActionListener() {
-                @Override
-                public void onSuccess(IMqttToken asyncActionToken) {
-                    isReconnecting = false;
-                    Log.d(TAG, "Reconnected successfully");
-                    if (callback != null) callback.onReconnected();
-                }
-
-                @Override
-                public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
-                    isReconnecting = false;
-                    Log.e(TAG, "Reconnection failed: " + exception.getMessage());
-                }
-            });
-        } catch (MqttException e) {
-            isReconnecting = false;
-            e.printStackTrace();
-        }
-    }
 }
@@ -0,0 +1,286 @@
+package com.example.datn;
+
+/**
+ * Con trỏ duyệt các trường của một câu NMEA ngay trên bộ đệm byte.
+ * Không tạo chuỗi hay mảng trung gian; các giá trị số được đọc bằng số học điểm cố định.
+ */
+public class NMEAFieldCursor {
+
+    private static final long[] POW10 = {
+            1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L
+    };
+    private static final int MAX_FRACTION_DIGITS = POW10.length - 1;
+    private static final int MICRO_MINUTE_DIGITS = 6;
+    private static final double MICRO_MINUTES_PER_DEGREE = 60.0 * 1000000.0;
+
+    private byte[] buffer;
+    private int sentenceStart;
+    private int sentenceEnd;
+    private int fieldIndex;
+    private int fieldStart;
+    private int fieldEnd;
+
+    /**
+     * Gắn con trỏ vào một câu NMEA đã kiểm tra checksum và đặt về trường 0 (địa chỉ, VD: GPRMC).
+     *
+     * @param buffer bộ đệm chứa câu
+     * @param offset vị trí ký tự '$'
+     * @param length độ dài câu (có thể gồm phần *hh)
+     */
+    public void reset(byte[] buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.sentenceStart = offset + 1; // Bỏ dấu '$'
+        int end = offset + length;
+        for (int i = sentenceStart; i < end; i++) {
+            if (buffer[i] == '*') {
+                end = i;
+                break;
+            }
+        }
+        this.sentenceEnd = end;
+        rewind();
+    }
+
+    private void rewind() {
+        fieldIndex = 0;
+        fieldStart = sentenceStart;
+        fieldEnd = findFieldEnd(sentenceStart);
+    }
+
+    private int findFieldEnd(int from) {
+        int i = from;
+        while (i < sentenceEnd && buffer[i] != ',') {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Di chuyển tới trường có chỉ số index (0 là trường địa chỉ).
+     *
+     * @return false nếu câu không có đủ số trường
+     */
+    public boolean moveTo(int index) {
+        if (index < fieldIndex) {
+            rewind();
+        }
+        while (fieldIndex < index) {
+            if (fieldEnd >= sentenceEnd) {
+                fieldStart = sentenceEnd;
+                return false;
+            }
+            fieldStart = fieldEnd + 1;
+            fieldEnd = findFieldEnd(fieldStart);
+            fieldIndex++;
+        }
+        return true;
+    }
+
+    public boolean isEmpty(int index) {
+        return !moveTo(index) || fieldStart == fieldEnd;
+    }
+
+    public int fieldLength(int index) {
+        return moveTo(index) ? fieldEnd - fieldStart : 0;
+    }
+
+    /**
+     * @return ký tự đầu của trường, hoặc 0 nếu trường rỗng
+     */
+    public int firstChar(int index) {
+        return isEmpty(index) ? 0 : buffer[fieldStart];
+    }
+
+    /**
+     * @return true nếu trường chứa ít nhất một ký tự trong chars
+     */
+    public boolean containsAny(int index, char[] chars) {
+        if (isEmpty(index)) {
+            return false;
+        }
+        for (int i = fieldStart; i < fieldEnd; i++) {
+            for (char c : chars) {
+                if (buffer[i] == c) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Đọc số nguyên không dấu, trả về defaultValue nếu trường rỗng hoặc sai định dạng.
+     */
+    public int parseInt(int index, int defaultValue) {
+        if (isEmpty(index)) {
+            return defaultValue;
+        }
+        int value = 0;
+        for (int i = fieldStart; i < fieldEnd; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return defaultValue;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Đọc số thập phân (VD: 022.4, -12.5), trả về 0 nếu trường rỗng hoặc sai định dạng.
+     */
+    public float parseFloat(int index) {
+        if (isEmpty(index)) {
+            return 0.0f;
+        }
+        int i = fieldStart;
+        boolean negative = buffer[i] == '-';
+        if (negative) {
+            i++;
+        }
+        long mantissa = 0;
+        int fractionDigits = 0;
+        boolean inFraction = false;
+        for (; i < fieldEnd; i++) {
+            int c = buffer[i];
+            if (c == '.') {
+                if (inFraction) {
+                    return 0.0f;
+                }
+                inFraction = true;
+                continue;
+            }
+            int digit = c - '0';
+            if (digit < 0 || digit > 9) {
+                return 0.0f;
+            }
+            if (inFraction) {
+                if (fractionDigits == MAX_FRACTION_DIGITS) {
+                    continue; // Bỏ các chữ số vượt quá độ chính xác cần thiết
+                }
+                fractionDigits++;
+            }
+            mantissa = mantissa * 10 + digit;
+        }
+        float value = (float) ((double) mantissa / POW10[fractionDigits]);
+        return negative ? -value : value;
+    }
+
+    /**
+     * Đọc tọa độ dạng (d)ddmm.mmmm và đổi sang độ thập phân.
+     * Số chữ số của phần độ được suy ra từ vị trí dấu chấm nên dùng chung cho vĩ độ và kinh độ.
+     *
+     * @param index           chỉ số trường tọa độ
+     * @param hemisphereIndex chỉ số trường bán cầu (N/S/E/W)
+     * @return tọa độ thập phân, hoặc 0 nếu một trong hai trường rỗng hay sai định dạng
+     */
+    public double parseCoordinate(int index, int hemisphereIndex) {
+        if (isEmpty(index)) {
+            return 0.0;
+        }
+        long wholeMinutes = 0; // phần nguyên ddmm
+        long microMinutes = 0; // phần lẻ của phút, đơn vị 1e-6 phút
+        int fractionDigits = 0;
+        boolean inFraction = false;
+        for (int i = fieldStart; i < fieldEnd; i++) {
+            int c = buffer[i];
+            if (c == '.') {
+                if (inFraction) {
+                    return 0.0;
+                }
+                inFraction = true;
+                continue;
+            }
+            int digit = c - '0';
+            if (digit < 0 || digit > 9) {
+                return 0.0;
+            }
+            if (!inFraction) {
+                wholeMinutes = wholeMinutes * 10 + digit;
+            } else if (fractionDigits < MICRO_MINUTE_DIGITS) {
+                microMinutes = microMinutes * 10 + digit;
+                fractionDigits++;
+            }
+        }
+        microMinutes *= POW10[MICRO_MINUTE_DIGITS - fractionDigits];
+        long degrees = wholeMinutes / 100;
+        long totalMicroMinutes = (wholeMinutes % 100) * 1000000L + microMinutes;
+        double value = degrees + totalMicroMinutes / MICRO_MINUTES_PER_DEGREE;
+        // Trường bán cầu nằm ngay sau trường tọa độ nên con trỏ chỉ cần đi tiếp
+        int hemisphere = firstChar(hemisphereIndex);
+        if (hemisphere == 0) {
+            return 0.0;
+        }
+        if (hemisphere == 'S' || hemisphere == 'W') {
+            value = -value;
+        }
+        return value;
+    }
+
+    /**
+     * Đọc thời gian UTC dạng hhmmss.sss.
+     *
+     * @return số mili giây kể từ 00:00 UTC, hoặc -1 nếu trường rỗng hay sai định dạng
+     */
+    public int parseTimeOfDayMillis(int index) {
+        if (fieldLength(index) < 6) {
+            return -1;
+        }
+        int hhmmss = 0;
+        int millis = 0;
+        int millisScale = 100;
+        boolean inFraction = false;
+        for (int i = fieldStart; i < fieldEnd; i++) {
+            int c = buffer[i];
+            if (c == '.' && !inFraction) {
+                inFraction = true;
+                continue;
+            }
+            int digit = c - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            if (!inFraction) {
+                hhmmss = hhmmss * 10 + digit;
+            } else if (millisScale > 0) {
+                millis += digit * millisScale;
+                millisScale /= 10;
+            }
+        }
+        int hours = hhmmss / 10000;
+        int minutes = (hhmmss / 100) % 100;
+        int seconds = hhmmss % 100;
+        if (hours > 23 || minutes > 59 || seconds > 60) {
+            return -1;
+        }
+        return ((hours * 60 + minutes) * 60 + seconds) * 1000 + millis;
+    }
+
+    /**
+     * Đọc ngày UTC dạng ddmmyy (năm 20yy).
+     *
+     * @return số ngày kể từ 1970-01-01, hoặc -1 nếu trường rỗng hay sai định dạng
+     */
+    public long parseEpochDay(int index) {
+        if (fieldLength(index) != 6) {
+            return -1;
+        }
+        int ddmmyy = parseInt(index, -1);
+        if (ddmmyy < 0) {
+            return -1;
+        }
+        int day = ddmmyy / 10000;
+        int month = (ddmmyy / 100) % 100;
+        int year = 2000 + ddmmyy % 100;
+        if (day < 1 || day > 31 || month < 1 || month > 12) {
+            return -1;
+        }
+        // Thuật toán days-from-civil, tránh tạo Calendar/LocalDate
+        int y = month <= 2 ? year - 1 : year;
+        int era = y / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468L;
+    }
+}
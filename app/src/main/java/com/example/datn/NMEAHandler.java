@@ -1,103 +1,109 @@
 package com.example.datn;
 
-import java.util.HashMap;
-import java.util.Map;
-
 public class NMEAHandler {
     // Java interface cho các parser câu NMEA
     interface SentenceParser {
-        void parse(String[] tokens, GPSPosition position);
+        void parse(NMEAFieldCursor fields, EpochAssembler epoch);
     }
 
-    public static class GPSPosition {
-        public float lat = 0.0f;
-        public float lon = 0.0f;
-        public float dir = 0.0f;
-        public float velocity = 0.0f;
-        public boolean hasGpsSignal = false;
-    }
+    private final EpochAssembler epochAssembler;
 
-    GPSPosition position = new GPSPosition();
+    // Loại câu được đóng gói thành int từ 3 ký tự, VD: 'R' 'M' 'C'
+    private static final int TYPE_RMC = ('R' << 16) | ('M' << 8) | 'C';
+    private static final int TYPE_VTG = ('V' << 16) | ('T' << 8) | 'G';
+    private static final int TYPE_GNS = ('G' << 16) | ('N' << 8) | 'S';
+    private static final int TYPE_GGA = ('G' << 16) | ('G' << 8) | 'A';
 
-    static float Latitude2Decimal(String lat, String NS) {
-        float med = Float.parseFloat(lat.substring(2)) / 60.0f;
-        med += Float.parseFloat(lat.substring(0, 2));
-        if (NS.startsWith("S")) {
-            med = -med;
-        }
-        return med;
-    }
-
-    static float Longitude2Decimal(String lon, String WE) {
-        float med = Float.parseFloat(lon.substring(3)) / 60.0f;
-        med += Float.parseFloat(lon.substring(0, 3));
-        if (WE.startsWith("W")) {
-            med = -med;
-        }
-        return med;
-    }
+    // Các chế độ định vị của câu GNS được coi là có tín hiệu
+    private static final char[] GNS_FIX_MODES = {'A', 'D', 'E', 'M', 'S'};
 
     // Các parser cho từng loại câu NMEA
     static class RMC implements SentenceParser {
-        public void parse(String[] tokens, GPSPosition position) {
-            position.lat = ("0".equals(tokens[3]) || "0".equals(tokens[4])) ? 0.0f : Latitude2Decimal(tokens[3], tokens[4]);
-            position.lon = ("0".equals(tokens[5]) || "0".equals(tokens[6])) ? 0.0f : Longitude2Decimal(tokens[5], tokens[6]);
-            position.velocity = "0".equals(tokens[7]) ? 0.0f : Float.parseFloat(tokens[7]);
-            position.dir = "0".equals(tokens[8]) ? 0.0f : Float.parseFloat(tokens[8]);
-            position.hasGpsSignal = "A".equals(tokens[2]);
+        public void parse(NMEAFieldCursor fields, EpochAssembler epoch) {
+            int time = fields.parseTimeOfDayMillis(1);
+            boolean valid = fields.firstChar(2) == 'A' && fields.fieldLength(2) == 1;
+            double lat = fields.parseCoordinate(3, 4);
+            double lon = fields.parseCoordinate(5, 6);
+            float velocity = fields.parseFloat(7);
+            float dir = fields.parseFloat(8);
+            long date = fields.parseEpochDay(9);
+            epoch.onRmc(time, date, valid, lat, lon, velocity, dir);
         }
     }
-    class VTG implements SentenceParser {
-        public void parse(String[] tokens, GPSPosition position) {
-            position.dir = "0".equals(tokens[3]) ? 0.0f : Float.parseFloat(tokens[3]);
-            position.velocity = "0".equals(tokens[5]) ? 0.0f : Float.parseFloat(tokens[5]);
+    static class VTG implements SentenceParser {
+        public void parse(NMEAFieldCursor fields, EpochAssembler epoch) {
+            float dir = fields.parseFloat(3);
+            float velocity = fields.parseFloat(5);
+            epoch.onVtg(velocity, dir);
         }
     }
-    class GNS implements SentenceParser {
-        public void parse(String[] tokens, GPSPosition position) {
-            position.lat = ("0".equals(tokens[2]) || "0".equals(tokens[3])) ? 0.0f : Latitude2Decimal(tokens[2], tokens[3]);
-            position.lon = ("0".equals(tokens[4]) || "0".equals(tokens[5])) ? 0.0f : Longitude2Decimal(tokens[4], tokens[5]);
-            String mode = tokens[6];
-            position.hasGpsSignal = mode.matches(".*[ADEMS].*");
+    static class GNS implements SentenceParser {
+        public void parse(NMEAFieldCursor fields, EpochAssembler epoch) {
+            int time = fields.parseTimeOfDayMillis(1);
+            double lat = fields.parseCoordinate(2, 3);
+            double lon = fields.parseCoordinate(4, 5);
+            boolean valid = fields.containsAny(6, GNS_FIX_MODES);
+            int satellites = fields.parseInt(7, 0);
+            float hdop = fields.parseFloat(8);
+            epoch.onGns(time, lat, lon, valid, satellites, hdop);
         }
     }
-    class GGA implements SentenceParser {
-        public void parse(String[] tokens, GPSPosition position) {
-            position.lat = ("0".equals(tokens[2]) || "0".equals(tokens[3])) ? 0.0f : Latitude2Decimal(tokens[2], tokens[3]);
-            position.lon = ("0".equals(tokens[4]) || "0".equals(tokens[5])) ? 0.0f : Longitude2Decimal(tokens[4], tokens[5]);
-            int fixQuality = tokens[6].isEmpty() ? 0 : Integer.parseInt(tokens[6]);
-            position.hasGpsSignal = fixQuality > 0;
+    static class GGA implements SentenceParser {
+        public void parse(NMEAFieldCursor fields, EpochAssembler epoch) {
+            int time = fields.parseTimeOfDayMillis(1);
+            double lat = fields.parseCoordinate(2, 3);
+            double lon = fields.parseCoordinate(4, 5);
+            int fixQuality = fields.parseInt(6, 0);
+            int satellites = fields.parseInt(7, 0);
+            float hdop = fields.parseFloat(8);
+            epoch.onGga(time, lat, lon, fixQuality, satellites, hdop);
         }
     }
 
-    private static final Map<String, SentenceParser> sentenceParsers = new HashMap<>();
+    private final SentenceParser rmcParser = new RMC();
+    private final SentenceParser vtgParser = new VTG();
+    private final SentenceParser gnsParser = new GNS();
+    private final SentenceParser ggaParser = new GGA();
+    private final NMEAFieldCursor fields = new NMEAFieldCursor();
 
-    public NMEAHandler() {
-        sentenceParsers.put("VTG", new VTG());
-        sentenceParsers.put("RMC", new RMC());
-        sentenceParsers.put("GNS", new GNS());
-        sentenceParsers.put("GGA", new GGA());
+    /**
+     * @param fixListener nhận đúng một GnssFix cho mỗi epoch đo, gọi trên luồng đọc UART
+     */
+    public NMEAHandler(EpochAssembler.Listener fixListener) {
+        epochAssembler = new EpochAssembler(fixListener);
     }
 
-    public GPSPosition parse(String line) {
-
-        if (line.startsWith("$G")) {
-            String nmea = line.substring(1);
-            String[] tokens = nmea.split(",");
-            String type = tokens[0].substring(2);
-            int i = 0;
-            for (String x : tokens) {
-                if (x.isEmpty()) {
-                    tokens[i] = "0";
-                }
-                i++;
-            }
-
-            if (sentenceParsers.containsKey(type)) {
-                sentenceParsers.get(type).parse(tokens, position);
-            }
+    /**
+     * Phân tích một câu NMEA đã kiểm tra checksum, đọc trực tiếp trên bộ đệm byte.
+     *
+     * @param buffer bộ đệm chứa câu
+     * @param offset vị trí ký tự '$'
+     * @param length độ dài câu
+     */
+    public void parse(byte[] buffer, int offset, int length) {
+        // Câu dạng $GxSSS,... : talker bắt đầu bằng 'G', loại câu ở 3 ký tự kế tiếp
+        if (length < 6 || buffer[offset] != '$' || buffer[offset + 1] != 'G') {
+            return;
         }
-
-        return position;
+        int type = (buffer[offset + 3] << 16) | (buffer[offset + 4] << 8) | buffer[offset + 5];
+        SentenceParser parser;
+        switch (type) {
+            case TYPE_RMC:
+                parser = rmcParser;
+                break;
+            case TYPE_VTG:
+                parser = vtgParser;
+                break;
+            case TYPE_GNS:
+                parser = gnsParser;
+                break;
+            case TYPE_GGA:
+                parser = ggaParser;
+                break;
+            default:
+                return;
+        }
+        fields.reset(buffer, offset, length);
+        parser.parse(fields, epochAssembler);
     }
 }
@@ -1,84 +1,124 @@
 package com.example.datn;
 public class NMEAProcessor {
 
-    private final StringBuilder buffer = new StringBuilder();
-    private boolean collecting = false;
+    // Tách câu NMEA theo khung byte: không cấp phát, checksum được XOR ngay khi byte đến
+    private static final int MAX_SENTENCE_LENGTH = 128;
+
+    private enum FrameState {
+        IDLE,
+        BODY,
+        CHECKSUM_HIGH,
+        CHECKSUM_LOW,
+        LINE_END
+    }
+
+    private final byte[] frameBuffer = new byte[MAX_SENTENCE_LENGTH];
+    private FrameState frameState = FrameState.IDLE;
+    private int frameLength = 0;
+    private int runningChecksum = 0;
+    private int expectedChecksum = 0;
 
     /**
      * Xử lý byte nhận được từ UART.
+     * Khi trả về true, câu hợp lệ nằm trong getFrameBuffer() từ vị trí 0 với độ dài
+     * getFrameLength() (từ '$' đến hết 2 ký tự checksum, không gồm CR/LF).
+     * Nội dung bộ đệm chỉ có hiệu lực đến lần gọi kế tiếp.
      *
      * @param inputByte byte nhận được từ UART
-     * @return Câu NMEA hoàn chỉnh (nếu có) hoặc null
+     * @return true nếu vừa hoàn tất một câu NMEA có checksum hợp lệ
      */
-    public String processIncomingByte(int inputByte) {
-        char receivedChar = (char) inputByte;
-
-        // Bắt đầu một câu mới khi gặp ký tự '$'
-        if (receivedChar == '$') {
-            collecting = true;
-            buffer.setLength(0); // Xóa bộ đệm cũ
-            buffer.append(receivedChar);
-        } else if (collecting) {
-            buffer.append(receivedChar);
-
-            // Kết thúc câu khi gặp '\n'
-            if (receivedChar == '\n') {
-                String sentence = buffer.toString().trim();
-                collecting = false; // Hoàn tất câu
-
-                if (sentence.length() > 1 && sentence.charAt(sentence.length() - 1) == '\r') {
-                    sentence = sentence.substring(0, sentence.length() - 1);
+    public boolean processFrameByte(int inputByte) {
+        if (inputByte == '$') {
+            frameBuffer[0] = '$';
+            frameLength = 1;
+            runningChecksum = 0;
+            frameState = FrameState.BODY;
+            return false;
+        }
+        switch (frameState) {
+            case BODY:
+                if (inputByte == '*') {
+                    if (!appendFrameByte(inputByte)) {
+                        return false;
+                    }
+                    frameState = FrameState.CHECKSUM_HIGH;
+                } else if (inputByte < 0x20 || inputByte > 0x7E) {
+                    frameState = FrameState.IDLE;
+                } else {
+                    runningChecksum ^= inputByte;
+                    if (!appendFrameByte(inputByte)) {
+                        return false;
+                    }
                 }
-
-                // Kiểm tra checksum
-                if (isValidNMEA(sentence)) {
-                    return sentence; // Trả về câu NMEA hợp lệ
+                break;
+            case CHECKSUM_HIGH:
+            case CHECKSUM_LOW:
+                int digit = hexValue(inputByte);
+                if (digit < 0) {
+                    frameState = FrameState.IDLE;
+                } else if (frameState == FrameState.CHECKSUM_HIGH) {
+                    expectedChecksum = digit << 4;
+                    if (!appendFrameByte(inputByte)) {
+                        return false;
+                    }
+                    frameState = FrameState.CHECKSUM_LOW;
+                } else {
+                    expectedChecksum |= digit;
+                    if (!appendFrameByte(inputByte)) {
+                        return false;
+                    }
+                    frameState = expectedChecksum == runningChecksum ? FrameState.LINE_END : FrameState.IDLE;
                 }
-                buffer.setLength(0); // Xóa bộ đệm
-            }
+                break;
+            case LINE_END:
+                frameState = FrameState.IDLE;
+                return inputByte == '\r' || inputByte == '\n';
+            default:
+                break;
         }
-
-        return null;
+        return false;
     }
 
     /**
-     * Kiểm tra xem câu NMEA có hợp lệ hay không bằng cách xác minh checksum.
-     *
-     * @param sentence Câu NMEA cần kiểm tra
-     * @return true nếu hợp lệ, false nếu không
+     * @return true nếu đang thu thập dở một câu
      */
-    public boolean isValidNMEA(String sentence) {
-        if (!sentence.startsWith("$") || !sentence.contains("*")) {
-            return false;
-        }
+    public boolean isCollectingFrame() {
+        return frameState != FrameState.IDLE;
+    }
 
-        // Tách phần dữ liệu và checksum
-        int checksumIndex = sentence.lastIndexOf('*');
-        String data = sentence.substring(1, checksumIndex); // Bỏ dấu '$'
-        String checksumStr = sentence.substring(checksumIndex + 1);
+    public byte[] getFrameBuffer() {
+        return frameBuffer;
+    }
 
-        try {
-            // Parse checksum từ chuỗi
-            int expectedChecksum = Integer.parseInt(checksumStr, 16);
-            int calculatedChecksum = calculateChecksum(data);
+    public int getFrameLength() {
+        return frameLength;
+    }
 
-            return expectedChecksum == calculatedChecksum;
-        } catch (NumberFormatException e) {
+    /**
+     * @return false nếu câu quá dài và đã bị bỏ; người gọi không được đổi trạng thái tiếp
+     */
+    private boolean appendFrameByte(int inputByte) {
+        if (frameLength == frameBuffer.length) {
+            // Quá dài so với chuẩn NMEA: bỏ câu
+            frameState = FrameState.IDLE;
             return false;
         }
+        frameBuffer[frameLength++] = (byte) inputByte;
+        return true;
+    }
+
+    private static int hexValue(int c) {
+        if (c >= '0' && c <= '9') return c - '0';
+        if (c >= 'A' && c <= 'F') return c - 'A' + 10;
+        if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+        return -1;
     }
 
     /**
-     * Tính checksum cho một chuỗi dữ liệu NMEA.
-     *
-     * @param data Chuỗi dữ liệu (không bao gồm $ và *)
-     * @return Giá trị checksum
+     * Hủy câu đang thu thập dở (VD: khi luồng chuyển sang bản tin UBX).
      */
-    private int calculateChecksum(String data) {
-        int checksum = 0;
-        for (char ch : data.toCharArray()) {
-            checksum ^= ch;
-        }
-        return checksum;
+    public void reset() {
+        frameState = FrameState.IDLE;
+        frameLength = 0;
     }
 }
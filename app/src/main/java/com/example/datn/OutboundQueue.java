@@ -0,0 +1,493 @@
+package com.example.datn;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Hàng đợi message MQTT gửi đi, lưu trên đĩa theo kiểu chỉ ghi nối (append-only).
+ *
+ * Mỗi message được ghi xuống file trước khi publish và chỉ bị xóa khi broker xác nhận (PUBACK),
+ * nên message không mất khi mất kết nối hay ứng dụng bị tắt; sau khi khởi động lại các message
+ * chưa xác nhận được gửi lại (có thể trùng, giống QoS 1). File bị giới hạn kích thước: khi đầy,
+ * các message cũ nhất chưa gửi bị bỏ.
+ *
+ * Định dạng file: header [int MAGIC][long ackedBelow], sau đó các bản ghi
+ * [int bodyLength][long seq][short topicLength][topic][payload][int crc32], bodyLength tính từ seq
+ * tới hết payload, crc32 tính trên cùng đoạn đó. Bản ghi hỏng ở cuối file (ghi dở) bị cắt bỏ khi mở.
+ * Khi message được xác nhận, bodyLength của bản ghi được ghi đè tại chỗ thành số âm; ackedBelow được
+ * ghi đè tại chỗ mỗi khi các message đầu hàng đợi được xác nhận liên tiếp: mọi bản ghi có seq nhỏ hơn
+ * đã được xác nhận. Nhờ vậy sau khi khởi động lại chỉ các message chưa xác nhận được gửi lại, kể cả
+ * khi xác nhận đến lệch thứ tự.
+ *
+ * Mỗi bản ghi được fsync ngay sau khi ghi để không mất khi mất nguồn đột ngột; header ackedBelow
+ * không được fsync riêng vì mất nó chỉ làm gửi trùng. Khi gộp file, file tạm được fsync trước khi
+ * đổi tên đè lên file cũ; nếu gộp thất bại, file cũ được giữ nguyên và mở lại.
+ */
+public class OutboundQueue {
+
+    /**
+     * Một message lấy ra để publish; trả lại bằng ack(seq) hoặc release(seq).
+     */
+    public static class Message {
+        public final long seq;
+        public final String topic;
+        public final byte[] payload;
+
+        Message(long seq, String topic, byte[] payload) {
+            this.seq = seq;
+            this.topic = topic;
+            this.payload = payload;
+        }
+    }
+
+    private static final String TAG = "OutboundQueue";
+    private static final int MAGIC = 0x514F514D; // 'MQOQ'
+    private static final int HEADER_BYTES = 4 + 8;
+    // bodyLength + crc32, và phần cố định của thân bản ghi (seq + topicLength)
+    private static final int RECORD_OVERHEAD = 4 + 4;
+    private static final int BODY_FIXED = 8 + 2;
+    // Gộp file khi phần đã xác nhận vượt mức này và chiếm quá nửa file
+    private static final long COMPACT_THRESHOLD = 64 * 1024;
+
+    private static final byte PENDING = 0;
+    private static final byte IN_FLIGHT = 1;
+    private static final byte ACKED = 2;
+
+    private final File file;
+    private final long maxBytes;
+    private RandomAccessFile raf;
+    private long nextSeq = 1;
+    private long endOffset = HEADER_BYTES;
+
+    // Bản ghi đang có trong file theo thứ tự seq tăng dần
+    private long[] seqs = new long[64];
+    private long[] offsets = new long[64];
+    private int[] lengths = new int[64];
+    private byte[] states = new byte[64];
+    private int count = 0;
+    private int firstPending = 0; // mọi bản ghi trước chỉ số này đều không còn PENDING
+    private int ackedPrefix = 0;  // số bản ghi đầu hàng đợi đã được xác nhận liên tiếp
+    private int inFlightCount = 0;
+    private int ackedCount = 0;
+    private long ackedBytes = 0;
+    private long droppedCount = 0;
+
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer recordBuffer = ByteBuffer.allocate(1024);
+
+    /**
+     * Mở (hoặc tạo) hàng đợi tại file cho trước và nạp lại các message chưa được xác nhận.
+     *
+     * @param maxBytes kích thước tối đa của file
+     */
+    public OutboundQueue(File file, long maxBytes) throws IOException {
+        this.file = file;
+        this.maxBytes = Math.max(maxBytes, HEADER_BYTES + 1024);
+        open();
+        Log.d(TAG, "Opened " + file.getName() + " with " + (count - ackedCount) + " pending messages, next seq " + nextSeq);
+    }
+
+    private void open() throws IOException {
+        raf = new RandomAccessFile(file, "rw");
+        count = 0;
+        firstPending = 0;
+        ackedPrefix = 0;
+        inFlightCount = 0;
+        ackedCount = 0;
+        ackedBytes = 0;
+        long length = raf.length();
+        if (length < HEADER_BYTES || raf.readInt() != MAGIC) {
+            writeHeader();
+            raf.setLength(HEADER_BYTES);
+            endOffset = HEADER_BYTES;
+            return;
+        }
+        long ackedBelow = raf.readLong();
+        nextSeq = Math.max(nextSeq, ackedBelow);
+        long offset = HEADER_BYTES;
+        while (offset + RECORD_OVERHEAD + BODY_FIXED <= length) {
+            raf.seek(offset);
+            int bodyLength = raf.readInt();
+            boolean acked = bodyLength < 0;
+            if (acked) {
+                bodyLength = -bodyLength;
+            }
+            if (bodyLength < BODY_FIXED || offset + RECORD_OVERHEAD + bodyLength > length) {
+                break;
+            }
+            ensureRecordBuffer(bodyLength);
+            raf.readFully(recordBuffer.array(), 0, bodyLength);
+            int storedCrc = raf.readInt();
+            crc.reset();
+            crc.update(recordBuffer.array(), 0, bodyLength);
+            if ((int) crc.getValue() != storedCrc) {
+                break;
+            }
+            long seq = ByteBuffer.wrap(recordBuffer.array(), 0, 8).getLong();
+            addRecord(seq, offset, RECORD_OVERHEAD + bodyLength);
+            if (acked || seq < ackedBelow) {
+                markAcked(count - 1);
+            }
+            nextSeq = Math.max(nextSeq, seq + 1);
+            offset += RECORD_OVERHEAD + bodyLength;
+        }
+        if (offset != length) {
+            Log.w(TAG, "Truncating " + (length - offset) + " corrupt bytes at end of " + file.getName());
+            raf.setLength(offset);
+        }
+        endOffset = offset;
+        advanceAckedPrefix();
+        if (ackedCount == count) {
+            truncate();
+        }
+    }
+
+    /**
+     * Ghi một message vào cuối hàng đợi.
+     *
+     * @return số thứ tự của message, hoặc -1 nếu không ghi được xuống đĩa
+     */
+    public synchronized long append(String topic, byte[] payload) {
+        byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+        int bodyLength = BODY_FIXED + topicBytes.length + payload.length;
+        int recordLength = RECORD_OVERHEAD + bodyLength;
+        if (HEADER_BYTES + recordLength > maxBytes) {
+            Log.e(TAG, "Message of " + payload.length + " bytes exceeds queue size");
+            return -1;
+        }
+        try {
+            ensureOpen();
+            if (endOffset + recordLength > maxBytes) {
+                makeRoom(recordLength);
+            }
+            long seq = nextSeq++;
+            ensureRecordBuffer(recordLength);
+            ByteBuffer buffer = recordBuffer;
+            buffer.clear();
+            buffer.putInt(bodyLength)
+                    .putLong(seq)
+                    .putShort((short) topicBytes.length)
+                    .put(topicBytes)
+                    .put(payload);
+            crc.reset();
+            crc.update(buffer.array(), 4, bodyLength);
+            buffer.putInt((int) crc.getValue());
+            raf.seek(endOffset);
+            raf.write(buffer.array(), 0, recordLength);
+            raf.getFD().sync();
+            addRecord(seq, endOffset, recordLength);
+            endOffset += recordLength;
+            return seq;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to append message: " + e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * Lấy message cũ nhất chưa gửi và đánh dấu là đang gửi.
+     *
+     * @param maxInFlight số message đang chờ xác nhận tối đa
+     * @return null nếu không còn message chờ gửi hoặc đã đủ số message đang gửi
+     */
+    public synchronized Message nextUnsent(int maxInFlight) {
+        try {
+            // Mở lại trước khi tìm vì mở lại sẽ dựng lại chỉ mục
+            ensureOpen();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to reopen " + file.getName() + ": " + e.getMessage());
+            return null;
+        }
+        if (inFlightCount >= maxInFlight) {
+            return null;
+        }
+        while (firstPending < count && states[firstPending] != PENDING) {
+            firstPending++;
+        }
+        if (firstPending == count) {
+            return null;
+        }
+        int i = firstPending;
+        try {
+            int bodyLength = lengths[i] - RECORD_OVERHEAD;
+            ensureRecordBuffer(bodyLength);
+            raf.seek(offsets[i] + 4);
+            raf.readFully(recordBuffer.array(), 0, bodyLength);
+            ByteBuffer buffer = ByteBuffer.wrap(recordBuffer.array(), 0, bodyLength);
+            long seq = buffer.getLong();
+            int topicLength = buffer.getShort() & 0xFFFF;
+            String topic = new String(recordBuffer.array(), BODY_FIXED, topicLength, StandardCharsets.UTF_8);
+            byte[] payload = Arrays.copyOfRange(recordBuffer.array(), BODY_FIXED + topicLength, bodyLength);
+            states[i] = IN_FLIGHT;
+            inFlightCount++;
+            firstPending++;
+            return new Message(seq, topic, payload);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read message " + seqs[i] + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return true nếu nextUnsent(maxInFlight) sẽ trả về một message
+     */
+    public synchronized boolean hasUnsent(int maxInFlight) {
+        if (inFlightCount >= maxInFlight) {
+            return false;
+        }
+        while (firstPending < count && states[firstPending] != PENDING) {
+            firstPending++;
+        }
+        return firstPending < count;
+    }
+
+    /**
+     * Broker đã xác nhận message: xóa khỏi hàng đợi (file được cắt/gộp dần).
+     */
+    public synchronized void ack(long seq) {
+        try {
+            // Mở lại trước khi tìm vì mở lại sẽ dựng lại chỉ mục
+            ensureOpen();
+            int i = Arrays.binarySearch(seqs, 0, count, seq);
+            if (i < 0 || states[i] == ACKED) {
+                return;
+            }
+            if (states[i] == IN_FLIGHT) {
+                inFlightCount--;
+            }
+            markAcked(i);
+            // Đánh dấu trên đĩa; không fsync vì mất dấu chỉ làm message bị gửi lại
+            raf.seek(offsets[i]);
+            raf.writeInt(-(lengths[i] - RECORD_OVERHEAD));
+            if (i == ackedPrefix) {
+                advanceAckedPrefix();
+            }
+            if (ackedCount == count) {
+                truncate();
+            } else if (ackedBytes >= COMPACT_THRESHOLD && ackedBytes * 2 >= endOffset) {
+                compact();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to record ack of " + seq + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Gửi thất bại: đưa message về trạng thái chờ gửi để gửi lại sau.
+     */
+    public synchronized void release(long seq) {
+        int i = Arrays.binarySearch(seqs, 0, count, seq);
+        if (i >= 0 && states[i] == IN_FLIGHT) {
+            states[i] = PENDING;
+            inFlightCount--;
+            firstPending = Math.min(firstPending, i);
+        }
+    }
+
+    /**
+     * Mất kết nối: mọi message đang chờ xác nhận được gửi lại từ đầu.
+     */
+    public synchronized void releaseInFlight() {
+        for (int i = 0; i < count; i++) {
+            if (states[i] == IN_FLIGHT) {
+                states[i] = PENDING;
+                firstPending = Math.min(firstPending, i);
+            }
+        }
+        inFlightCount = 0;
+    }
+
+    /**
+     * @return số message chưa được xác nhận (kể cả đang gửi)
+     */
+    public synchronized int size() {
+        return count - ackedCount;
+    }
+
+    public synchronized int getInFlightCount() {
+        return inFlightCount;
+    }
+
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    // Bỏ các message cũ nhất chưa gửi cho tới khi đủ chỗ cho bản ghi mới, chừa thêm 1/8 dung lượng
+    // để không phải gộp file ở mỗi lần ghi khi hàng đợi đầy
+    private void makeRoom(int recordLength) throws IOException {
+        long freed = ackedBytes;
+        long dropped = 0;
+        long target = maxBytes - maxBytes / 8;
+        for (int i = 0; i < count && endOffset - freed + recordLength > target; i++) {
+            if (states[i] == PENDING) {
+                freed += lengths[i];
+                markAcked(i);
+                dropped++;
+            }
+        }
+        droppedCount += dropped;
+        if (dropped > 0) {
+            Log.w(TAG, "Queue full, dropped " + dropped + " oldest messages (" + droppedCount + " total)");
+        }
+        compact();
+    }
+
+    // Dời mốc ackedBelow qua các bản ghi đầu hàng đợi đã xác nhận và ghi lại vào header
+    private void advanceAckedPrefix() throws IOException {
+        int prefix = ackedPrefix;
+        while (prefix < count && states[prefix] == ACKED) {
+            prefix++;
+        }
+        if (prefix != ackedPrefix) {
+            ackedPrefix = prefix;
+            writeHeader();
+        }
+    }
+
+    private void markAcked(int i) {
+        states[i] = ACKED;
+        ackedCount++;
+        ackedBytes += lengths[i];
+    }
+
+    // Mọi message đã được xác nhận: cắt file về header. Header mang nextSeq nên được fsync để seq
+    // vẫn tăng đơn điệu sau khi mất nguồn
+    private void truncate() throws IOException {
+        count = 0;
+        writeHeader();
+        raf.setLength(HEADER_BYTES);
+        raf.getFD().sync();
+        endOffset = HEADER_BYTES;
+        firstPending = 0;
+        ackedPrefix = 0;
+        ackedCount = 0;
+        ackedBytes = 0;
+    }
+
+    // Chép các bản ghi chưa xác nhận sang file mới rồi thay file cũ. Chỉ mục chỉ được thay sau khi đổi tên
+    // thành công; nếu thất bại, file cũ và chỉ mục cũ vẫn khớp nhau.
+    private void compact() throws IOException {
+        if (ackedCount == 0) {
+            return;
+        }
+        if (ackedCount == count) {
+            truncate();
+            return;
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        byte[] copyBuffer = new byte[8192];
+        int capacity = seqs.length;
+        long[] newSeqs = new long[capacity];
+        long[] newOffsets = new long[capacity];
+        int[] newLengths = new int[capacity];
+        byte[] newStates = new byte[capacity];
+        int kept = 0;
+        long newOffset = HEADER_BYTES;
+        try (RandomAccessFile out = new RandomAccessFile(temp, "rw")) {
+            out.setLength(0);
+            out.writeInt(MAGIC);
+            out.writeLong(firstUnackedSeq());
+            for (int i = 0; i < count; i++) {
+                if (states[i] == ACKED) {
+                    continue;
+                }
+                raf.seek(offsets[i]);
+                for (int remaining = lengths[i]; remaining > 0; ) {
+                    int n = Math.min(remaining, copyBuffer.length);
+                    raf.readFully(copyBuffer, 0, n);
+                    out.write(copyBuffer, 0, n);
+                    remaining -= n;
+                }
+                newSeqs[kept] = seqs[i];
+                newOffsets[kept] = newOffset;
+                newLengths[kept] = lengths[i];
+                newStates[kept] = states[i];
+                newOffset += lengths[i];
+                kept++;
+            }
+            // File tạm phải nằm trên đĩa trước khi thay file cũ, nếu không mất nguồn có thể để lại file rỗng
+            out.getFD().sync();
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        raf.close();
+        raf = null;
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            raf = new RandomAccessFile(file, "rw");
+            throw new IOException("Cannot replace " + file.getName());
+        }
+        seqs = newSeqs;
+        offsets = newOffsets;
+        lengths = newLengths;
+        states = newStates;
+        count = kept;
+        endOffset = newOffset;
+        firstPending = 0;
+        ackedPrefix = 0;
+        ackedCount = 0;
+        ackedBytes = 0;
+        raf = new RandomAccessFile(file, "rw");
+    }
+
+    // Mở lại file và dựng lại chỉ mục nếu lần gộp trước không mở lại được; message đang gửi trở về chờ gửi
+    private void ensureOpen() throws IOException {
+        if (raf != null) {
+            return;
+        }
+        Log.w(TAG, "Reopening " + file.getName());
+        try {
+            open();
+        } catch (IOException e) {
+            if (raf != null) {
+                raf.close();
+                raf = null;
+            }
+            throw e;
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        raf.seek(0);
+        raf.writeInt(MAGIC);
+        raf.writeLong(firstUnackedSeq());
+    }
+
+    private long firstUnackedSeq() {
+        for (int i = ackedPrefix; i < count; i++) {
+            if (states[i] != ACKED) {
+                return seqs[i];
+            }
+        }
+        return nextSeq;
+    }
+
+    private void addRecord(long seq, long offset, int length) {
+        if (count == seqs.length) {
+            int capacity = count * 2;
+            seqs = Arrays.copyOf(seqs, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            states = Arrays.copyOf(states, capacity);
+        }
+        seqs[count] = seq;
+        offsets[count] = offset;
+        lengths[count] = length;
+        states[count] = PENDING;
+        count++;
+    }
+
+    private void ensureRecordBuffer(int length) {
+        if (recordBuffer.capacity() < length) {
+            recordBuffer = ByteBuffer.allocate(Math.max(recordBuffer.capacity() * 2, length));
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.datn;
+
+/**
+ * Chỉ mục dải vĩ độ (slab) cho một đa giác: các cạnh được chia vào các dải ngang theo khoảng vĩ độ
+ * của chúng. Khi kiểm tra một điểm, chỉ các cạnh thuộc dải chứa vĩ độ của điểm mới được xét,
+ * với cùng quy tắc ray casting như GeofenceHandler.isPointInPolygon.
+ */
+public class PolygonSlabIndex {
+
+    // GeofenceHandler dịch điểm lên 0.00001° khi trùng vĩ độ đỉnh, nên mỗi dải được nới thêm đúng khoảng đó
+    private static final int NUDGE_MICRO_DEGREES = 10;
+    private static final int EDGES_PER_SLAB = 4;
+
+    private final int[] coordinates;
+    private final int firstPoint;
+    private final int pointCount;
+    private final int minLat;
+    private final int maxLat;
+    private final int slabHeight;
+    private final int slabCount;
+    // Cạnh của dải s nằm trong slabEdges[slabStart[s] .. slabStart[s + 1]), lưu chỉ số điểm đầu cạnh
+    private final int[] slabStart;
+    private final int[] slabEdges;
+
+    /**
+     * @param coordinates mảng tọa độ micro-độ (lat, lon xen kẽ)
+     * @param firstPoint  chỉ số điểm đầu tiên của đa giác
+     * @param pointCount  số điểm của đa giác
+     */
+    public PolygonSlabIndex(int[] coordinates, int firstPoint, int pointCount) {
+        this.coordinates = coordinates;
+        this.firstPoint = firstPoint;
+        this.pointCount = pointCount;
+
+        int low = Integer.MAX_VALUE, high = Integer.MIN_VALUE;
+        for (int i = 0; i < pointCount; i++) {
+            int lat = coordinates[(firstPoint + i) * 2];
+            low = Math.min(low, lat);
+            high = Math.max(high, lat);
+        }
+        if (pointCount == 0) {
+            low = high = 0;
+        }
+        minLat = low;
+        maxLat = high;
+        slabCount = Math.max(1, pointCount / EDGES_PER_SLAB);
+        slabHeight = Math.max(1, (maxLat - minLat) / slabCount + 1);
+
+        slabStart = new int[slabCount + 1];
+        for (int i = 0; i < pointCount; i++) {
+            for (int s = firstSlab(i); s <= lastSlab(i); s++) {
+                slabStart[s + 1]++;
+            }
+        }
+        for (int s = 0; s < slabCount; s++) {
+            slabStart[s + 1] += slabStart[s];
+        }
+        slabEdges = new int[slabStart[slabCount]];
+        int[] fill = new int[slabCount];
+        for (int i = 0; i < pointCount; i++) {
+            for (int s = firstSlab(i); s <= lastSlab(i); s++) {
+                slabEdges[slabStart[s] + fill[s]++] = firstPoint + i;
+            }
+        }
+    }
+
+    // Dải đầu/cuối mà cạnh thứ i chạm tới; dải s phủ [minLat + s*h - NUDGE, minLat + (s+1)*h)
+    private int firstSlab(int i) {
+        int low = Math.min(coordinates[(firstPoint + i) * 2], coordinates[nextPoint(firstPoint + i) * 2]);
+        return Math.min(slabCount - 1, (low - minLat) / slabHeight);
+    }
+
+    private int lastSlab(int i) {
+        int high = Math.max(coordinates[(firstPoint + i) * 2], coordinates[nextPoint(firstPoint + i) * 2]);
+        return Math.min(slabCount - 1, (high - minLat + NUDGE_MICRO_DEGREES) / slabHeight);
+    }
+
+    private int nextPoint(int point) {
+        return point + 1 < firstPoint + pointCount ? point + 1 : firstPoint;
+    }
+
+    /**
+     * Kiểm tra điểm có nằm trong đa giác không. Không cấp phát.
+     */
+    public boolean contains(double lat, double lon) {
+        double microLat = lat * ProvinceBoundaryData.MICRO_DEGREES;
+        if (pointCount == 0 || microLat < minLat || microLat > maxLat) {
+            // Không cạnh nào có khoảng vĩ độ chứa điểm (kể cả sau khi dịch), giống ray casting đầy đủ
+            return false;
+        }
+        int slab = Math.min(slabCount - 1, (int) ((microLat - minLat) / slabHeight));
+        int crossings = 0;
+        for (int e = slabStart[slab]; e < slabStart[slab + 1]; e++) {
+            int a = slabEdges[e] * 2;
+            int b = nextPoint(slabEdges[e]) * 2;
+            if (GeofenceHandler.rayCrossesSegment(lat, lon,
+                    coordinates[a] / ProvinceBoundaryData.MICRO_DEGREES, coordinates[a + 1] / ProvinceBoundaryData.MICRO_DEGREES,
+                    coordinates[b] / ProvinceBoundaryData.MICRO_DEGREES, coordinates[b + 1] / ProvinceBoundaryData.MICRO_DEGREES)) {
+                crossings++;
+            }
+        }
+        return (crossings % 2 == 1);
+    }
+}
@@ -0,0 +1,381 @@
+package com.example.datn;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ranh giới các tỉnh ở dạng mảng nguyên thủy, nạp từ provinces.bin (sinh lúc build bởi task
+ * compileProvinceBoundaries). Tọa độ lưu dạng int32 micro-độ, xen kẽ lat, lon.
+ */
+public class ProvinceBoundaryData {
+
+    private static final String TAG = "ProvinceBoundaryData";
+    static final String ASSET_NAME = "provinces.bin";
+
+    private static final int MAGIC = 0x42504E56; // 'VNPB'
+    private static final int VERSION = 1;
+    private static final int HEADER_INTS = 6;
+    static final int PROVINCE_INTS = 8;
+    static final int RING_INTS = 6;
+    // Vị trí các trường trong một dòng bảng tỉnh / bảng vòng
+    static final int PROVINCE_FIRST_RING = 2;
+    static final int PROVINCE_RING_COUNT = 3;
+    static final int PROVINCE_BOUNDS = 4;
+    static final int RING_FIRST_POINT = 0;
+    static final int RING_POINT_COUNT = 1;
+    static final int RING_BOUNDS = 2;
+
+    public static final double MICRO_DEGREES = 1e6;
+    static final double EARTH_RADIUS_METERS = 6371000;
+
+    // Sai số Douglas-Peucker (mét) của từng mức chi tiết ranh giới; mức 0 là đầy đủ.
+    // provinces.json vốn đã thưa (cạnh dài vài km) nên các mức bắt đầu từ 2 km.
+    public static final double[] DETAIL_LEVEL_TOLERANCES = {0, 2000, 5000, 10000};
+    // Số chữ số thập phân đủ dùng khi gửi tọa độ ở từng mức (1e-3° ≈ 110 m)
+    public static final int[] DETAIL_LEVEL_DECIMALS = {6, 4, 3, 3};
+
+    final String[] names;
+    final int[] provinces;   // PROVINCE_INTS int mỗi tỉnh
+    final int[] rings;       // RING_INTS int mỗi vòng
+    final int[] coordinates; // lat, lon (micro-độ) xen kẽ
+    private final Map<String, Integer> indexByName;
+    // Chỉ mục dải vĩ độ của từng vòng
+    private final PolygonSlabIndex[] ringIndex;
+    // Điểm được giữ ở từng mức chi tiết: điểm của vòng r ở mức l là
+    // levelPoints[l][levelRingStart[l][r] .. levelRingStart[l][r + 1])
+    private final int[][] levelRingStart;
+    private final int[][] levelPoints;
+
+    ProvinceBoundaryData(String[] names, int[] provinces, int[] rings, int[] coordinates) {
+        this.names = names;
+        this.provinces = provinces;
+        this.rings = rings;
+        this.coordinates = coordinates;
+        this.indexByName = new HashMap<>(names.length * 2);
+        for (int i = 0; i < names.length; i++) {
+            indexByName.put(names[i], i);
+        }
+        int ringCount = rings.length / RING_INTS;
+        this.ringIndex = new PolygonSlabIndex[ringCount];
+        for (int ring = 0; ring < ringCount; ring++) {
+            ringIndex[ring] = new PolygonSlabIndex(coordinates,
+                    rings[ring * RING_INTS + RING_FIRST_POINT], rings[ring * RING_INTS + RING_POINT_COUNT]);
+        }
+        this.levelRingStart = new int[DETAIL_LEVEL_TOLERANCES.length][];
+        this.levelPoints = new int[DETAIL_LEVEL_TOLERANCES.length][];
+        for (int level = 0; level < DETAIL_LEVEL_TOLERANCES.length; level++) {
+            simplifyLevel(level);
+        }
+    }
+
+    // Tính trước các điểm được giữ của mọi vòng ở một mức chi tiết
+    private void simplifyLevel(int level) {
+        int ringCount = rings.length / RING_INTS;
+        int maxRingPoints = 0;
+        for (int ring = 0; ring < ringCount; ring++) {
+            maxRingPoints = Math.max(maxRingPoints, rings[ring * RING_INTS + RING_POINT_COUNT]);
+        }
+        boolean[] keep = new boolean[maxRingPoints];
+        int[] ringStart = new int[ringCount + 1];
+        int[] points = new int[coordinates.length / 2];
+        int kept = 0;
+        for (int ring = 0; ring < ringCount; ring++) {
+            int first = rings[ring * RING_INTS + RING_FIRST_POINT];
+            int count = rings[ring * RING_INTS + RING_POINT_COUNT];
+            BoundarySimplifier.simplify(coordinates, first, count, DETAIL_LEVEL_TOLERANCES[level], keep);
+            ringStart[ring] = kept;
+            for (int i = 0; i < count; i++) {
+                if (keep[i]) {
+                    points[kept++] = first + i;
+                }
+            }
+        }
+        ringStart[ringCount] = kept;
+        levelRingStart[level] = ringStart;
+        levelPoints[level] = Arrays.copyOf(points, kept);
+    }
+
+    /**
+     * Nạp provinces.bin: memory-map khi asset không bị nén, nếu không thì đọc một lần vào bộ nhớ.
+     */
+    public static ProvinceBoundaryData load(Context context) throws IOException {
+        ByteBuffer buffer;
+        try (AssetFileDescriptor afd = context.getAssets().openFd(ASSET_NAME);
+             FileInputStream stream = afd.createInputStream();
+             FileChannel channel = stream.getChannel()) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, afd.getStartOffset(), afd.getLength());
+        } catch (IOException e) {
+            // openFd thất bại khi asset bị nén trong APK
+            Log.w(TAG, "Cannot map " + ASSET_NAME + ", reading it instead: " + e.getMessage());
+            buffer = ByteBuffer.wrap(readFully(context, ASSET_NAME));
+        }
+        return parse(buffer);
+    }
+
+    static ProvinceBoundaryData parse(ByteBuffer buffer) throws IOException {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        IntBuffer ints = buffer.asIntBuffer();
+        if (ints.remaining() < HEADER_INTS || ints.get() != MAGIC || ints.get() != VERSION) {
+            throw new IOException("Invalid " + ASSET_NAME);
+        }
+        int provinceCount = ints.get();
+        int ringCount = ints.get();
+        int pointCount = ints.get();
+        int nameBytes = ints.get();
+
+        int[] provinces = new int[provinceCount * PROVINCE_INTS];
+        int[] rings = new int[ringCount * RING_INTS];
+        int[] coordinates = new int[pointCount * 2];
+        ints.get(provinces);
+        ints.get(rings);
+        ints.get(coordinates);
+
+        byte[] nameBlob = new byte[nameBytes];
+        buffer.position((HEADER_INTS + provinces.length + rings.length + coordinates.length) * 4);
+        buffer.get(nameBlob);
+        String[] names = new String[provinceCount];
+        for (int i = 0; i < provinceCount; i++) {
+            names[i] = new String(nameBlob, provinces[i * PROVINCE_INTS], provinces[i * PROVINCE_INTS + 1],
+                    StandardCharsets.UTF_8);
+        }
+        return new ProvinceBoundaryData(names, provinces, rings, coordinates);
+    }
+
+    /**
+     * Dựng dữ liệu từ bản đồ ranh giới dạng LatLng (dùng khi không có provinces.bin).
+     * Mỗi danh sách con là một vòng của tỉnh.
+     */
+    static ProvinceBoundaryData fromBoundaries(Map<String, List<List<LatLng>>> boundaries) {
+        int provinceCount = boundaries.size();
+        int ringCount = 0;
+        int pointCount = 0;
+        for (List<List<LatLng>> boundary : boundaries.values()) {
+            ringCount += boundary.size();
+            for (List<LatLng> ring : boundary) {
+                pointCount += ring.size();
+            }
+        }
+        String[] names = new String[provinceCount];
+        int[] provinces = new int[provinceCount * PROVINCE_INTS];
+        int[] rings = new int[ringCount * RING_INTS];
+        int[] coordinates = new int[pointCount * 2];
+        int province = 0;
+        int ring = 0;
+        int point = 0;
+        for (Map.Entry<String, List<List<LatLng>>> entry : boundaries.entrySet()) {
+            names[province] = entry.getKey();
+            int firstRing = ring;
+            int minLat = Integer.MAX_VALUE, minLon = Integer.MAX_VALUE;
+            int maxLat = Integer.MIN_VALUE, maxLon = Integer.MIN_VALUE;
+            for (List<LatLng> latLngs : entry.getValue()) {
+                int firstPoint = point;
+                int ringMinLat = Integer.MAX_VALUE, ringMinLon = Integer.MAX_VALUE;
+                int ringMaxLat = Integer.MIN_VALUE, ringMaxLon = Integer.MIN_VALUE;
+                for (LatLng latLng : latLngs) {
+                    int lat = (int) Math.round(latLng.latitude * MICRO_DEGREES);
+                    int lon = (int) Math.round(latLng.longitude * MICRO_DEGREES);
+                    coordinates[point * 2] = lat;
+                    coordinates[point * 2 + 1] = lon;
+                    ringMinLat = Math.min(ringMinLat, lat);
+                    ringMinLon = Math.min(ringMinLon, lon);
+                    ringMaxLat = Math.max(ringMaxLat, lat);
+                    ringMaxLon = Math.max(ringMaxLon, lon);
+                    point++;
+                }
+                int r = ring * RING_INTS;
+                rings[r + RING_FIRST_POINT] = firstPoint;
+                rings[r + RING_POINT_COUNT] = point - firstPoint;
+                setBounds(rings, r + RING_BOUNDS, ringMinLat, ringMinLon, ringMaxLat, ringMaxLon);
+                minLat = Math.min(minLat, ringMinLat);
+                minLon = Math.min(minLon, ringMinLon);
+                maxLat = Math.max(maxLat, ringMaxLat);
+                maxLon = Math.max(maxLon, ringMaxLon);
+                ring++;
+            }
+            int p = province * PROVINCE_INTS;
+            provinces[p + PROVINCE_FIRST_RING] = firstRing;
+            provinces[p + PROVINCE_RING_COUNT] = ring - firstRing;
+            setBounds(provinces, p + PROVINCE_BOUNDS, minLat, minLon, maxLat, maxLon);
+            province++;
+        }
+        return new ProvinceBoundaryData(names, provinces, rings, coordinates);
+    }
+
+    private static void setBounds(int[] table, int base, int minLat, int minLon, int maxLat, int maxLon) {
+        table[base] = minLat;
+        table[base + 1] = minLon;
+        table[base + 2] = maxLat;
+        table[base + 3] = maxLon;
+    }
+
+    /**
+     * @return true nếu điểm (micro-độ) nằm trong hộp bao bắt đầu tại table[base]
+     */
+    static boolean inBounds(int[] table, int base, double microLat, double microLon) {
+        return microLat >= table[base] && microLon >= table[base + 1]
+                && microLat <= table[base + 2] && microLon <= table[base + 3];
+    }
+
+    private static byte[] readFully(Context context, String filename) throws IOException {
+        try (InputStream is = context.getAssets().open(filename)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(32 * 1024);
+            byte[] chunk = new byte[8192];
+            int n;
+            while ((n = is.read(chunk)) > 0) {
+                out.write(chunk, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    public int getProvinceCount() {
+        return names.length;
+    }
+
+    public String getName(int province) {
+        return names[province];
+    }
+
+    /**
+     * @return chỉ số tỉnh, hoặc -1 nếu không có
+     */
+    public int indexOf(String provinceName) {
+        Integer index = provinceName != null ? indexByName.get(provinceName) : null;
+        return index != null ? index : -1;
+    }
+
+    /**
+     * Kiểm tra điểm có nằm trong tỉnh không (ray casting như GeofenceHandler trên từng vòng).
+     * Vòng có hộp bao không chứa điểm được bỏ qua. Điểm nằm trong tỉnh khi nằm trong một số lẻ
+     * vòng: trong vòng ngoài (hoặc đảo) mà không rơi vào lỗ của nó.
+     */
+    public boolean contains(int province, double lat, double lon) {
+        int p = province * PROVINCE_INTS;
+        if (!inBounds(provinces, p + PROVINCE_BOUNDS, lat * MICRO_DEGREES, lon * MICRO_DEGREES)) {
+            return false;
+        }
+        int firstRing = provinces[p + PROVINCE_FIRST_RING];
+        int endRing = firstRing + provinces[p + PROVINCE_RING_COUNT];
+        boolean inside = false;
+        for (int ring = firstRing; ring < endRing; ring++) {
+            if (ringContains(ring, lat, lon)) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    private boolean ringContains(int ring, double lat, double lon) {
+        return inBounds(rings, ring * RING_INTS + RING_BOUNDS, lat * MICRO_DEGREES, lon * MICRO_DEGREES)
+                && ringIndex[ring].contains(lat, lon);
+    }
+
+    /**
+     * Khoảng cách ngắn nhất (mét) từ điểm tới ranh giới tỉnh, xét mọi cạnh của mọi vòng.
+     * Dùng phép chiếu phẳng cục bộ quanh điểm nên sai số nhỏ (dưới 1%) ở quy mô một tỉnh.
+     * Vòng có hộp bao xa hơn khoảng cách tốt nhất hiện tại được bỏ qua.
+     */
+    public double distanceToBoundary(int province, double lat, double lon) {
+        double metersPerMicroLat = EARTH_RADIUS_METERS * Math.PI / 180 / MICRO_DEGREES;
+        double metersPerMicroLon = metersPerMicroLat * Math.cos(Math.toRadians(lat));
+        double pLat = lat * MICRO_DEGREES;
+        double pLon = lon * MICRO_DEGREES;
+        double best = Double.MAX_VALUE; // bình phương khoảng cách
+        int firstRing = getFirstRing(province);
+        for (int ring = firstRing; ring < firstRing + getRingCount(province); ring++) {
+            int bounds = ring * RING_INTS + RING_BOUNDS;
+            double gapLat = Math.max(0, Math.max(rings[bounds] - pLat, pLat - rings[bounds + 2])) * metersPerMicroLat;
+            double gapLon = Math.max(0, Math.max(rings[bounds + 1] - pLon, pLon - rings[bounds + 3])) * metersPerMicroLon;
+            if (gapLat * gapLat + gapLon * gapLon >= best) {
+                continue;
+            }
+            best = Math.min(best, ringDistanceSquared(coordinates, rings[ring * RING_INTS + RING_FIRST_POINT],
+                    rings[ring * RING_INTS + RING_POINT_COUNT], lat, lon));
+        }
+        return best == Double.MAX_VALUE ? Double.MAX_VALUE : Math.sqrt(best);
+    }
+
+    /**
+     * Bình phương khoảng cách ngắn nhất (mét²) từ điểm tới các cạnh của một vòng, phép chiếu phẳng
+     * cục bộ quanh điểm.
+     */
+    static double ringDistanceSquared(int[] coordinates, int first, int count, double lat, double lon) {
+        double metersPerMicroLat = EARTH_RADIUS_METERS * Math.PI / 180 / MICRO_DEGREES;
+        double metersPerMicroLon = metersPerMicroLat * Math.cos(Math.toRadians(lat));
+        double pLat = lat * MICRO_DEGREES;
+        double pLon = lon * MICRO_DEGREES;
+        double best = Double.MAX_VALUE;
+        for (int i = first; i < first + count; i++) {
+            int a = i * 2;
+            int b = (i + 1 < first + count ? i + 1 : first) * 2;
+            // Tọa độ mét của hai đầu cạnh, gốc tại điểm cần đo
+            double ay = (coordinates[a] - pLat) * metersPerMicroLat;
+            double ax = (coordinates[a + 1] - pLon) * metersPerMicroLon;
+            double dy = (coordinates[b] - pLat) * metersPerMicroLat - ay;
+            double dx = (coordinates[b + 1] - pLon) * metersPerMicroLon - ax;
+            double lengthSq = dx * dx + dy * dy;
+            double t = lengthSq > 0 ? Math.max(0, Math.min(1, -(ax * dx + ay * dy) / lengthSq)) : 0;
+            double x = ax + t * dx;
+            double y = ay + t * dy;
+            best = Math.min(best, x * x + y * y);
+        }
+        return best;
+    }
+
+    public int getFirstRing(int province) {
+        return provinces[province * PROVINCE_INTS + PROVINCE_FIRST_RING];
+    }
+
+    public int getRingCount(int province) {
+        return provinces[province * PROVINCE_INTS + PROVINCE_RING_COUNT];
+    }
+
+    /**
+     * Dựng danh sách LatLng của tỉnh (gộp mọi vòng), chỉ dùng cho đường ít gọi như gửi attribute.
+     * Không dùng danh sách này để kiểm tra điểm vì sẽ tạo cạnh giả nối giữa các vòng.
+     */
+    public List<LatLng> toLatLngList(int province) {
+        return toLatLngList(province, 0);
+    }
+
+    /**
+     * Như toLatLngList(province) nhưng chỉ lấy các điểm giữ lại ở mức chi tiết cho trước.
+     *
+     * @param level chỉ số trong DETAIL_LEVEL_TOLERANCES, được giới hạn vào khoảng hợp lệ
+     */
+    public List<LatLng> toLatLngList(int province, int level) {
+        level = clampDetailLevel(level);
+        int[] ringStart = levelRingStart[level];
+        int[] points = levelPoints[level];
+        int firstRing = getFirstRing(province);
+        int endRing = firstRing + getRingCount(province);
+        List<LatLng> result = new ArrayList<>(ringStart[endRing] - ringStart[firstRing]);
+        for (int k = ringStart[firstRing]; k < ringStart[endRing]; k++) {
+            int i = points[k];
+            result.add(new LatLng(coordinates[i * 2] / MICRO_DEGREES, coordinates[i * 2 + 1] / MICRO_DEGREES));
+        }
+        return result;
+    }
+
+    public static int clampDetailLevel(int level) {
+        return Math.max(0, Math.min(DETAIL_LEVEL_TOLERANCES.length - 1, level));
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.datn;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bộ đệm LRU kết quả tra cứu tỉnh theo ô lượng tử hóa của tọa độ.
+ *
+ * Mặt cầu được chia thành các ô vuông (theo độ) cạnh 360° / 2^level. Lần đầu gặp một ô, ô được
+ * phân loại một lần: nếu không có cạnh ranh giới nào chạm ô thì mọi điểm trong ô có cùng kết quả,
+ * bộ đệm lưu tỉnh chứa ô (hoặc "ngoài mọi tỉnh"); ngược lại ô được đánh dấu là ô biên và các điểm
+ * trong đó luôn được kiểm tra chính xác. Lộ trình lặp lại hằng ngày vì vậy chủ yếu trúng bộ đệm.
+ */
+public class ProvinceCellCache {
+
+    // Cạnh ô ≈ 0.011° ≈ 1.2 km
+    public static final int DEFAULT_LEVEL = 15;
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private static final int OUTSIDE = -1;
+    private static final int BORDER = -2;
+    // Nới ô theo khoảng dịch 0.00001° của ray casting để ô không biên cho kết quả giống kiểm tra chính xác
+    private static final double MARGIN_MICRO_DEGREES = 10;
+
+    private final ProvinceBoundaryData data;
+    private final ProvinceLocator locator;
+    private final int level;
+    private final double cellSize; // micro-độ
+    private final Map<Long, Integer> cells;
+
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long borderCount = 0;
+
+    public ProvinceCellCache(ProvinceBoundaryData data, ProvinceLocator locator) {
+        this(data, locator, DEFAULT_LEVEL, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param level    mức chia ô, cạnh ô = 360° / 2^level
+     * @param capacity số ô tối đa được giữ, ô ít dùng nhất bị loại trước
+     */
+    public ProvinceCellCache(ProvinceBoundaryData data, ProvinceLocator locator, int level, int capacity) {
+        this.data = data;
+        this.locator = locator;
+        this.level = level;
+        this.cellSize = 360 * ProvinceBoundaryData.MICRO_DEGREES / (1L << level);
+        this.cells = new LinkedHashMap<Long, Integer>(capacity * 4 / 3 + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Integer> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Tìm tỉnh chứa điểm, cùng kết quả với ProvinceLocator.locate.
+     *
+     * @return chỉ số tỉnh, hoặc -1 nếu điểm không thuộc tỉnh nào
+     */
+    public synchronized int locate(double lat, double lon) {
+        int cell = lookup(lat, lon);
+        return cell == BORDER ? locator.locate(lat, lon) : cell;
+    }
+
+    /**
+     * Kiểm tra điểm có nằm trong tỉnh không, cùng kết quả với ProvinceBoundaryData.contains.
+     */
+    public synchronized boolean contains(int province, double lat, double lon) {
+        int cell = lookup(lat, lon);
+        return cell == BORDER ? data.contains(province, lat, lon) : cell == province;
+    }
+
+    private int lookup(double lat, double lon) {
+        long row = (long) Math.floor((lat * ProvinceBoundaryData.MICRO_DEGREES + 90 * ProvinceBoundaryData.MICRO_DEGREES) / cellSize);
+        long col = (long) Math.floor((lon * ProvinceBoundaryData.MICRO_DEGREES + 180 * ProvinceBoundaryData.MICRO_DEGREES) / cellSize);
+        Long key = (row << 32) | (col & 0xFFFFFFFFL);
+        Integer cell = cells.get(key);
+        if (cell != null) {
+            hitCount++;
+        } else {
+            missCount++;
+            cell = classifyCell(row, col);
+            cells.put(key, cell);
+        }
+        if (cell == BORDER) {
+            borderCount++;
+        }
+        return cell;
+    }
+
+    // Phân loại ô: BORDER nếu có cạnh chạm ô hoặc ô thuộc nhiều tỉnh chồng lấn, nếu không thì tỉnh chứa tâm ô
+    private int classifyCell(long row, long col) {
+        double minLat = row * cellSize - 90 * ProvinceBoundaryData.MICRO_DEGREES - MARGIN_MICRO_DEGREES;
+        double minLon = col * cellSize - 180 * ProvinceBoundaryData.MICRO_DEGREES - MARGIN_MICRO_DEGREES;
+        double maxLat = minLat + cellSize + 2 * MARGIN_MICRO_DEGREES;
+        double maxLon = minLon + cellSize + 2 * MARGIN_MICRO_DEGREES;
+        double centerLat = (minLat + maxLat) / 2 / ProvinceBoundaryData.MICRO_DEGREES;
+        double centerLon = (minLon + maxLon) / 2 / ProvinceBoundaryData.MICRO_DEGREES;
+
+        int result = OUTSIDE;
+        for (int province = 0; province < data.getProvinceCount(); province++) {
+            int bounds = province * ProvinceBoundaryData.PROVINCE_INTS + ProvinceBoundaryData.PROVINCE_BOUNDS;
+            if (!overlaps(data.provinces, bounds, minLat, minLon, maxLat, maxLon)) {
+                continue;
+            }
+            int firstRing = data.getFirstRing(province);
+            for (int ring = firstRing; ring < firstRing + data.getRingCount(province); ring++) {
+                if (ringTouchesCell(ring, minLat, minLon, maxLat, maxLon)) {
+                    return BORDER;
+                }
+            }
+            if (data.contains(province, centerLat, centerLon)) {
+                if (result != OUTSIDE) {
+                    return BORDER;
+                }
+                result = province;
+            }
+        }
+        return result;
+    }
+
+    private boolean ringTouchesCell(int ring, double minLat, double minLon, double maxLat, double maxLon) {
+        int r = ring * ProvinceBoundaryData.RING_INTS;
+        if (!overlaps(data.rings, r + ProvinceBoundaryData.RING_BOUNDS, minLat, minLon, maxLat, maxLon)) {
+            return false;
+        }
+        int first = data.rings[r + ProvinceBoundaryData.RING_FIRST_POINT];
+        int count = data.rings[r + ProvinceBoundaryData.RING_POINT_COUNT];
+        int[] coordinates = data.coordinates;
+        for (int i = first; i < first + count; i++) {
+            int a = i * 2;
+            int b = (i + 1 < first + count ? i + 1 : first) * 2;
+            if (segmentTouchesRect(coordinates[a], coordinates[a + 1], coordinates[b], coordinates[b + 1],
+                    minLat, minLon, maxLat, maxLon)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean overlaps(int[] table, int base, double minLat, double minLon, double maxLat, double maxLon) {
+        return table[base] <= maxLat && table[base + 1] <= maxLon && table[base + 2] >= minLat && table[base + 3] >= minLon;
+    }
+
+    // Đoạn (a, b) chạm hình chữ nhật khi hộp bao giao nhau và bốn góc không cùng nằm một phía đường thẳng ab
+    private static boolean segmentTouchesRect(double aLat, double aLon, double bLat, double bLon,
+                                              double minLat, double minLon, double maxLat, double maxLon) {
+        if (Math.max(aLat, bLat) < minLat || Math.min(aLat, bLat) > maxLat
+                || Math.max(aLon, bLon) < minLon || Math.min(aLon, bLon) > maxLon) {
+            return false;
+        }
+        double dLat = bLat - aLat, dLon = bLon - aLon;
+        double c1 = dLon * (minLat - aLat) - dLat * (minLon - aLon);
+        double c2 = dLon * (minLat - aLat) - dLat * (maxLon - aLon);
+        double c3 = dLon * (maxLat - aLat) - dLat * (minLon - aLon);
+        double c4 = dLon * (maxLat - aLat) - dLat * (maxLon - aLon);
+        return !((c1 > 0 && c2 > 0 && c3 > 0 && c4 > 0) || (c1 < 0 && c2 < 0 && c3 < 0 && c4 < 0));
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public synchronized int size() {
+        return cells.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return số lần tra cứu rơi vào ô biên và phải kiểm tra chính xác
+     */
+    public synchronized long getBorderCount() {
+        return borderCount;
+    }
+}
@@ -0,0 +1,241 @@
+package com.example.datn;
+
+import java.util.Arrays;
+
+/**
+ * Chỉ mục lưới đều để tìm tỉnh chứa một điểm bất kỳ trong số tất cả các tỉnh.
+ *
+ * Mỗi ô lưới lưu các cạnh ranh giới đi qua ô, nhóm theo tỉnh, cùng trạng thái trong/ngoài của
+ * tâm ô với từng tỉnh đó (tính trước khi dựng). Khi tra cứu, chỉ cần đếm số cạnh trong ô mà đoạn
+ * thẳng tâm ô -> điểm cắt qua: số lần cắt lẻ thì trạng thái của điểm ngược với tâm ô.
+ * Tỉnh không có cạnh nào trong ô thì chứa cả ô hoặc không chứa điểm nào của ô.
+ * Vì vậy mỗi lần tra cứu chỉ chạm vài cạnh thay vì toàn bộ ~2.900 cạnh.
+ */
+public class ProvinceLocator {
+
+    // Kích thước ô lưới, micro-độ (0.1° ≈ 11 km)
+    static final int DEFAULT_CELL_SIZE = 100000;
+
+    private final ProvinceBoundaryData data;
+    private final int cellSize;
+    private final int minLat;
+    private final int minLon;
+    private final int rows;
+    private final int cols;
+
+    // Điểm kế tiếp của mỗi điểm trong cùng vòng (đóng vòng), và tỉnh sở hữu cạnh bắt đầu tại điểm đó
+    private final int[] nextPoint;
+    private final int[] edgeProvince;
+
+    // Tỉnh chứa trọn ô (không có cạnh trong ô), -1 nếu không có
+    private final int[] cellInteriorProvince;
+    // Danh sách cạnh theo ô dạng CSR: cạnh của ô c nằm trong cellEdges[cellEdgeStart[c] .. cellEdgeStart[c + 1])
+    private final int[] cellEdgeStart;
+    private final int[] cellEdges;
+    // Các nhóm cạnh cùng tỉnh trong mỗi ô: nhóm của ô c là [cellRunStart[c] .. cellRunStart[c + 1]),
+    // nhóm r gồm cellEdges[runEdgeStart[r] .. runEdgeStart[r + 1])
+    private final int[] cellRunStart;
+    private final int[] runEdgeStart;
+    private final int[] runProvince;
+    private final boolean[] runCenterInside;
+
+    public ProvinceLocator(ProvinceBoundaryData data) {
+        this(data, DEFAULT_CELL_SIZE);
+    }
+
+    public ProvinceLocator(ProvinceBoundaryData data, int cellSize) {
+        this.data = data;
+        this.cellSize = cellSize;
+
+        int pointCount = data.coordinates.length / 2;
+        nextPoint = new int[pointCount];
+        edgeProvince = new int[pointCount];
+        int gridMinLat = Integer.MAX_VALUE, gridMinLon = Integer.MAX_VALUE;
+        int gridMaxLat = Integer.MIN_VALUE, gridMaxLon = Integer.MIN_VALUE;
+        for (int province = 0; province < data.getProvinceCount(); province++) {
+            int p = province * ProvinceBoundaryData.PROVINCE_INTS;
+            int bounds = p + ProvinceBoundaryData.PROVINCE_BOUNDS;
+            gridMinLat = Math.min(gridMinLat, data.provinces[bounds]);
+            gridMinLon = Math.min(gridMinLon, data.provinces[bounds + 1]);
+            gridMaxLat = Math.max(gridMaxLat, data.provinces[bounds + 2]);
+            gridMaxLon = Math.max(gridMaxLon, data.provinces[bounds + 3]);
+            int firstRing = data.provinces[p + ProvinceBoundaryData.PROVINCE_FIRST_RING];
+            int ringCount = data.provinces[p + ProvinceBoundaryData.PROVINCE_RING_COUNT];
+            for (int ring = firstRing; ring < firstRing + ringCount; ring++) {
+                int first = data.rings[ring * ProvinceBoundaryData.RING_INTS + ProvinceBoundaryData.RING_FIRST_POINT];
+                int count = data.rings[ring * ProvinceBoundaryData.RING_INTS + ProvinceBoundaryData.RING_POINT_COUNT];
+                for (int i = first; i < first + count; i++) {
+                    nextPoint[i] = i + 1 < first + count ? i + 1 : first;
+                    edgeProvince[i] = province;
+                }
+            }
+        }
+        if (pointCount == 0) {
+            gridMinLat = gridMinLon = gridMaxLat = gridMaxLon = 0;
+        }
+        minLat = gridMinLat;
+        minLon = gridMinLon;
+        rows = (gridMaxLat - gridMinLat) / cellSize + 1;
+        cols = (gridMaxLon - gridMinLon) / cellSize + 1;
+
+        // Đếm rồi điền cạnh vào các ô mà hộp bao của cạnh chạm tới
+        cellEdgeStart = new int[rows * cols + 1];
+        int[] range = new int[4];
+        for (int i = 0; i < pointCount; i++) {
+            edgeCellRange(i, range);
+            for (int row = range[0]; row <= range[1]; row++) {
+                for (int col = range[2]; col <= range[3]; col++) {
+                    cellEdgeStart[row * cols + col + 1]++;
+                }
+            }
+        }
+        for (int c = 0; c < rows * cols; c++) {
+            cellEdgeStart[c + 1] += cellEdgeStart[c];
+        }
+        cellEdges = new int[cellEdgeStart[rows * cols]];
+        int[] fill = Arrays.copyOf(cellEdgeStart, rows * cols);
+        // Duyệt điểm theo thứ tự tỉnh nên cạnh trong mỗi ô đã được nhóm theo tỉnh
+        for (int i = 0; i < pointCount; i++) {
+            edgeCellRange(i, range);
+            for (int row = range[0]; row <= range[1]; row++) {
+                for (int col = range[2]; col <= range[3]; col++) {
+                    cellEdges[fill[row * cols + col]++] = i;
+                }
+            }
+        }
+
+        int cellCount = rows * cols;
+        cellRunStart = new int[cellCount + 1];
+        int runCount = 0;
+        for (int c = 0; c < cellCount; c++) {
+            cellRunStart[c] = runCount;
+            for (int e = cellEdgeStart[c]; e < cellEdgeStart[c + 1]; e++) {
+                if (e == cellEdgeStart[c] || edgeProvince[cellEdges[e]] != edgeProvince[cellEdges[e - 1]]) {
+                    runCount++;
+                }
+            }
+        }
+        cellRunStart[cellCount] = runCount;
+        runEdgeStart = new int[runCount + 1];
+        runProvince = new int[runCount];
+        runCenterInside = new boolean[runCount];
+        cellInteriorProvince = new int[cellCount];
+        int run = 0;
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                int c = row * cols + col;
+                double lat = centerLat(row) / ProvinceBoundaryData.MICRO_DEGREES;
+                double lon = centerLon(col) / ProvinceBoundaryData.MICRO_DEGREES;
+                for (int e = cellEdgeStart[c]; e < cellEdgeStart[c + 1]; e++) {
+                    int province = edgeProvince[cellEdges[e]];
+                    if (e == cellEdgeStart[c] || province != edgeProvince[cellEdges[e - 1]]) {
+                        runEdgeStart[run] = e;
+                        runProvince[run] = province;
+                        runCenterInside[run] = data.contains(province, lat, lon);
+                        run++;
+                    }
+                }
+                cellInteriorProvince[c] = findInteriorProvince(c, lat, lon);
+            }
+        }
+        runEdgeStart[runCount] = cellEdges.length;
+    }
+
+    // Khoảng hàng/cột [rowFrom, rowTo, colFrom, colTo] mà hộp bao của cạnh chạm tới
+    private void edgeCellRange(int edge, int[] range) {
+        int a = edge * 2;
+        int b = nextPoint[edge] * 2;
+        range[0] = (Math.min(data.coordinates[a], data.coordinates[b]) - minLat) / cellSize;
+        range[1] = (Math.max(data.coordinates[a], data.coordinates[b]) - minLat) / cellSize;
+        range[2] = (Math.min(data.coordinates[a + 1], data.coordinates[b + 1]) - minLon) / cellSize;
+        range[3] = (Math.max(data.coordinates[a + 1], data.coordinates[b + 1]) - minLon) / cellSize;
+    }
+
+    private double centerLat(int row) {
+        return minLat + row * (double) cellSize + cellSize / 2.0;
+    }
+
+    private double centerLon(int col) {
+        return minLon + col * (double) cellSize + cellSize / 2.0;
+    }
+
+    // Tìm tỉnh chứa tâm ô trong số các tỉnh không có cạnh nào trong ô, chỉ dùng khi dựng chỉ mục
+    private int findInteriorProvince(int cell, double lat, double lon) {
+        for (int province = 0; province < data.getProvinceCount(); province++) {
+            boolean hasEdges = false;
+            for (int r = cellRunStart[cell]; r < cellRunStart[cell + 1]; r++) {
+                if (runProvince[r] == province) {
+                    hasEdges = true;
+                    break;
+                }
+            }
+            if (!hasEdges && data.contains(province, lat, lon)) {
+                return province;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Tìm tỉnh chứa điểm. Không cấp phát, an toàn khi gọi từ nhiều luồng.
+     *
+     * @return chỉ số tỉnh trong ProvinceBoundaryData, hoặc -1 nếu điểm không thuộc tỉnh nào
+     */
+    public int locate(double lat, double lon) {
+        double pLat = lat * ProvinceBoundaryData.MICRO_DEGREES;
+        double pLon = lon * ProvinceBoundaryData.MICRO_DEGREES;
+        int row = (int) Math.floor((pLat - minLat) / cellSize);
+        int col = (int) Math.floor((pLon - minLon) / cellSize);
+        if (row < 0 || col < 0 || row >= rows || col >= cols) {
+            return -1;
+        }
+        int cell = row * cols + col;
+        double cLat = centerLat(row);
+        double cLon = centerLon(col);
+
+        // Khi ranh giới các tỉnh chồng lấn nhau, trả về tỉnh có chỉ số nhỏ nhất như khi quét lần lượt
+        int result = cellInteriorProvince[cell];
+        for (int r = cellRunStart[cell]; r < cellRunStart[cell + 1]; r++) {
+            if (result >= 0 && runProvince[r] > result) {
+                break;
+            }
+            int crossings = 0;
+            for (int e = runEdgeStart[r]; e < runEdgeStart[r + 1]; e++) {
+                if (segmentCrossesEdge(cLat, cLon, pLat, pLon, cellEdges[e])) {
+                    crossings++;
+                }
+            }
+            if (runCenterInside[r] != ((crossings & 1) == 1)) {
+                return runProvince[r];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return tên tỉnh chứa điểm, hoặc null
+     */
+    public String findProvince(double lat, double lon) {
+        int province = locate(lat, lon);
+        return province >= 0 ? data.getName(province) : null;
+    }
+
+    // Đoạn tâm ô (c) -> điểm (p) có cắt cạnh (a, b) không; đầu mút cạnh theo quy tắc nửa mở như ray casting
+    private boolean segmentCrossesEdge(double cLat, double cLon, double pLat, double pLon, int edge) {
+        int a = edge * 2;
+        int b = nextPoint[edge] * 2;
+        double aLat = data.coordinates[a], aLon = data.coordinates[a + 1];
+        double bLat = data.coordinates[b], bLon = data.coordinates[b + 1];
+
+        double dLat = pLat - cLat, dLon = pLon - cLon;
+        boolean aSide = dLon * (aLat - cLat) - dLat * (aLon - cLon) > 0;
+        boolean bSide = dLon * (bLat - cLat) - dLat * (bLon - cLon) > 0;
+        if (aSide == bSide) {
+            return false;
+        }
+        double eLat = bLat - aLat, eLon = bLon - aLon;
+        double cSide = eLon * (cLat - aLat) - eLat * (cLon - aLon);
+        double pSide = eLon * (pLat - aLat) - eLat * (pLon - aLon);
+        return (cSide > 0) != (pSide > 0) && cSide != 0 && pSide != 0;
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.datn;
+
+/**
+ * Một làn ưu tiên của đường gửi MQTT: hàng đợi trên đĩa riêng, QoS, số message chờ xác nhận tối đa
+ * và giới hạn tốc độ (token bucket) riêng. MqttHandler luôn xét các làn theo thứ tự ưu tiên, nên
+ * cảnh báo không phải xếp sau dữ liệu gửi bù hay attribute ranh giới lớn.
+ */
+public class PublishLane {
+
+    public final String name;
+    public final int qos;
+    public final int maxInFlight;
+    public final double rate;        // message/giây
+    public final long maxQueueBytes;
+    // Chỉ dùng trên luồng io của MqttHandler; null khi không mở được file hàng đợi (khi đó message của
+    // làn được gửi thẳng)
+    OutboundQueue queue;
+
+    private double tokens;
+    private long tokensUpdatedAt = 0;
+
+    public PublishLane(String name, int qos, int maxInFlight, double rate, long maxQueueBytes) {
+        this.name = name;
+        this.qos = qos;
+        this.maxInFlight = maxInFlight;
+        this.rate = rate;
+        this.maxQueueBytes = maxQueueBytes;
+        this.tokens = maxInFlight;
+    }
+
+    /**
+     * Lấy một token gửi; cho phép dồn tối đa maxInFlight token.
+     *
+     * @return 0 nếu lấy được, ngược lại số ms phải chờ tới khi có token
+     */
+    public synchronized long takeToken(long now) {
+        tokens = Math.min(maxInFlight, tokens + (now - tokensUpdatedAt) * rate / 1000);
+        tokensUpdatedAt = now;
+        if (tokens < 1) {
+            return (long) Math.ceil((1 - tokens) * 1000 / rate);
+        }
+        tokens -= 1;
+        return 0;
+    }
+
+    public synchronized void returnToken() {
+        tokens += 1;
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.datn;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Thời gian chờ giữa các lần kết nối lại: tăng gấp đôi sau mỗi lần thất bại, có trần, cộng jitter.
+ *
+ * Mỗi lần chờ nằm ngẫu nhiên trong [d/2, d] với d = min(maxDelay, baseDelay * 2^attempts), để nhiều
+ * thiết bị mất sóng cùng lúc không kết nối lại cùng một thời điểm.
+ */
+public class ReconnectBackoff {
+
+    private final long baseDelay;
+    private final long maxDelay;
+    private int attempts = 0;
+
+    /**
+     * @param baseDelay thời gian chờ lần đầu (ms)
+     * @param maxDelay  thời gian chờ tối đa (ms)
+     */
+    public ReconnectBackoff(long baseDelay, long maxDelay) {
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * @return thời gian chờ (ms) trước lần thử tiếp theo
+     */
+    public long nextDelay() {
+        long ceiling = Math.min(maxDelay, baseDelay << Math.min(attempts, 30));
+        attempts++;
+        return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+    }
+
+    public void reset() {
+        attempts = 0;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.datn;
+
+/**
+ * Quyết định khi nào gửi vị trí, thay cho việc gửi theo từng câu NMEA.
+ *
+ * Một fix được báo cáo khi thỏa một trong các điều kiện so với lần báo cáo trước:
+ *   - đã quá maxIntervalMillis;
+ *   - đi được ít nhất max(distanceMeters, tốc độ × DISTANCE_SECONDS_AT_SPEED), để ở tốc độ cao không
+ *     gửi quá dày trên đường thẳng;
+ *   - đổi hướng ít nhất turnDegrees khi đang di chuyển (hướng không tin cậy khi gần đứng yên);
+ *   - chuyển giữa đứng yên và di chuyển.
+ * Các điều kiện trừ thời gian đều cần cách lần trước ít nhất MIN_INTERVAL_MILLIS.
+ *
+ * Đồng thời cộng dồn quãng đường (odometer): chỉ cộng khi điểm đã rời điểm neo ít nhất
+ * ODOMETER_STEP_METERS nên rung tọa độ lúc đứng yên không làm tăng quãng đường.
+ * Chỉ dùng trạng thái nguyên thủy; được gọi từ luồng xử lý fix và luồng chính nên các phương thức đều đồng bộ.
+ */
+public class ReportingPolicy {
+
+    public static final double DEFAULT_TURN_DEGREES = 15;
+    private static final long MIN_INTERVAL_MILLIS = 2000;
+    private static final double MOVING_SPEED_MPS = 1.5;
+    private static final double DISTANCE_SECONDS_AT_SPEED = 5;
+    private static final double ODOMETER_STEP_METERS = 10;
+
+    private double distanceMeters;
+    private long maxIntervalMillis;
+    private double turnDegrees = DEFAULT_TURN_DEGREES;
+
+    private boolean hasReport = false;
+    private double reportLat;
+    private double reportLon;
+    private double reportCourse;
+    private boolean reportMoving;
+    private long reportTime;
+
+    private boolean hasOdometerAnchor = false;
+    private double odometerLat;
+    private double odometerLon;
+    private double odometerMeters = 0;
+
+    /**
+     * @param distanceMeters    quãng đường tối thiểu giữa hai lần báo cáo
+     * @param maxIntervalMillis thời gian tối đa giữa hai lần báo cáo
+     */
+    public ReportingPolicy(double distanceMeters, long maxIntervalMillis) {
+        this.distanceMeters = distanceMeters;
+        this.maxIntervalMillis = maxIntervalMillis;
+    }
+
+    public synchronized void setThresholds(double distanceMeters, long maxIntervalMillis, double turnDegrees) {
+        this.distanceMeters = distanceMeters;
+        this.maxIntervalMillis = maxIntervalMillis;
+        this.turnDegrees = turnDegrees;
+    }
+
+    /**
+     * Đưa một fix mới vào: cập nhật odometer và cho biết có nên báo cáo fix này không.
+     * Người gọi gọi markReported() khi đã thực sự gửi.
+     *
+     * @param speedMps tốc độ (m/s)
+     * @param course   hướng di chuyển (độ)
+     * @param now      thời điểm hiện tại của thiết bị (ms)
+     */
+    public synchronized boolean onFix(double lat, double lon, double speedMps, double course, long now) {
+        updateOdometer(lat, lon);
+        if (!hasReport) {
+            return true;
+        }
+        long elapsed = now - reportTime;
+        if (elapsed >= maxIntervalMillis) {
+            return true;
+        }
+        if (elapsed < MIN_INTERVAL_MILLIS) {
+            return false;
+        }
+        boolean moving = speedMps >= MOVING_SPEED_MPS;
+        if (moving != reportMoving) {
+            return true;
+        }
+        double threshold = Math.max(distanceMeters, speedMps * DISTANCE_SECONDS_AT_SPEED);
+        if (distance(reportLat, reportLon, lat, lon) >= threshold) {
+            return true;
+        }
+        return moving && angleDifference(reportCourse, course) >= turnDegrees;
+    }
+
+    /**
+     * @return true nếu đã quá maxIntervalMillis kể từ lần báo cáo trước (hoặc chưa báo cáo lần nào)
+     */
+    public synchronized boolean isHeartbeatDue(long now) {
+        return !hasReport || now - reportTime >= maxIntervalMillis;
+    }
+
+    public synchronized void markReported(double lat, double lon, double speedMps, double course, long now) {
+        hasReport = true;
+        reportLat = lat;
+        reportLon = lon;
+        reportCourse = course;
+        reportMoving = speedMps >= MOVING_SPEED_MPS;
+        reportTime = now;
+    }
+
+    /**
+     * @return tổng quãng đường (mét) từ khi khởi động
+     */
+    public synchronized double getOdometerMeters() {
+        return odometerMeters;
+    }
+
+    private void updateOdometer(double lat, double lon) {
+        if (!hasOdometerAnchor) {
+            hasOdometerAnchor = true;
+            odometerLat = lat;
+            odometerLon = lon;
+            return;
+        }
+        double step = distance(odometerLat, odometerLon, lat, lon);
+        if (step >= ODOMETER_STEP_METERS) {
+            odometerMeters += step;
+            odometerLat = lat;
+            odometerLon = lon;
+        }
+    }
+
+    // Khoảng cách (mét) theo phép chiếu phẳng cục bộ, đủ chính xác ở cự ly vài km
+    static double distance(double lat1, double lon1, double lat2, double lon2) {
+        double metersPerDegree = ProvinceBoundaryData.EARTH_RADIUS_METERS * Math.PI / 180;
+        double dy = (lat2 - lat1) * metersPerDegree;
+        double dx = (lon2 - lon1) * metersPerDegree * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    // Góc lệch giữa hai hướng, trong [0, 180]
+    static double angleDifference(double a, double b) {
+        double d = Math.abs(a - b) % 360;
+        return d > 180 ? 360 - d : d;
+    }
+}
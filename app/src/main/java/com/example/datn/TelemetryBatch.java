@@ -0,0 +1,53 @@
+package com.example.datn;
+
+/**
+ * Gom nhiều mẫu telemetry thành một payload dạng mảng của ThingsBoard:
+ *   [{"ts": 1700000000000, "values": {...}}, {"ts": ..., "values": {...}}]
+ *
+ * Mỗi mẫu mang mốc thời gian của thiết bị nên dữ liệu gửi trễ vẫn đúng thời điểm trên server.
+ * Các mẫu được ghi thẳng vào một JsonWriter dùng lại, không giữ đối tượng trung gian.
+ * Không an toàn khi dùng từ nhiều luồng cùng lúc; MqttHandler khóa bằng chính đối tượng này.
+ */
+public class TelemetryBatch {
+
+    private final JsonWriter writer = new JsonWriter(4096);
+    private int sampleCount = 0;
+
+    /**
+     * Mở một mẫu mới. Người gọi ghi các cặp name/value của "values" rồi gọi endSample().
+     *
+     * @param timestamp mốc thời gian của mẫu (ms, UTC)
+     */
+    public JsonWriter beginSample(long timestamp) {
+        if (sampleCount == 0) {
+            writer.reset().beginArray();
+        }
+        return writer.beginObject()
+                .name("ts").value(timestamp)
+                .name("values").beginObject();
+    }
+
+    /**
+     * @return số mẫu trong batch sau khi thêm
+     */
+    public int endSample() {
+        writer.endObject().endObject();
+        return ++sampleCount;
+    }
+
+    public int size() {
+        return sampleCount;
+    }
+
+    /**
+     * Đóng mảng và trả về payload, sau đó batch rỗng. Trả về null nếu không có mẫu nào.
+     */
+    public byte[] drain() {
+        if (sampleCount == 0) {
+            return null;
+        }
+        byte[] payload = writer.endArray().toByteArray();
+        sampleCount = 0;
+        return payload;
+    }
+}
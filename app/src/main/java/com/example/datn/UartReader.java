@@ -4,11 +4,19 @@ import android.util.Log;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 public class UartReader {
 
+    // Kích thước bộ đệm đọc khối, đủ chứa vài câu NMEA/UBX mỗi lần gọi
+    public static final int READ_BUFFER_SIZE = 4096;
+
     private FileInputStream inputStream;
     private FileOutputStream outputStream;
+    private FileChannel inputChannel;
+    // Bộ đệm direct dùng lại cho mọi lần đọc, tránh bản sao trung gian trong kernel -> JVM
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
 
     /**
      * Mở cổng UART
@@ -18,6 +26,7 @@ public class UartReader {
     public boolean openUart(String devicePath) {
         try {
             inputStream = new FileInputStream(devicePath);
+            inputChannel = inputStream.getChannel();
             outputStream = new FileOutputStream(devicePath);
             return true;
         } catch (IOException e) {
@@ -30,6 +39,7 @@ public class UartReader {
      */
     public void closeUart() {
         try {
+            if (inputChannel != null) inputChannel.close();
             if (inputStream != null) inputStream.close();
             if (outputStream != null) outputStream.close();
             Log.d("UartHandler", "Đã đóng cổng UART.");
@@ -56,6 +66,28 @@ public class UartReader {
         return -1;
     }
 
+    /**
+     * Đọc một khối byte từ UART vào bộ đệm của người gọi.
+     * Mỗi lần gọi chỉ tốn một syscall, trả về tất cả byte driver đang có (tối đa buffer.length).
+     * @param buffer Bộ đệm đích, nên được cấp phát một lần và dùng lại
+     * @return số byte đã đọc, hoặc -1 nếu lỗi/hết dữ liệu
+     */
+    public int read(byte[] buffer) {
+        try {
+            readBuffer.clear();
+            readBuffer.limit(Math.min(buffer.length, readBuffer.capacity()));
+            int numRead = inputChannel.read(readBuffer);
+            if (numRead > 0) {
+                readBuffer.flip();
+                readBuffer.get(buffer, 0, numRead);
+            }
+            return numRead;
+        } catch (IOException e) {
+            Log.e("UartHandler", "Lỗi khi đọc từ UART: " + e.getMessage());
+            return -1;
+        }
+    }
+
     /**
      * Ghi dữ liệu vào UART
      * @param data Mảng byte cần ghi
@@ -0,0 +1,157 @@
+package com.example.datn;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Kiểm tra định dạng file, khôi phục sau khi khởi động lại và giới hạn kích thước của OutboundQueue.
+ */
+public class OutboundQueueTest {
+
+    private static final String TOPIC = "v1/devices/me/telemetry";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = new File(folder.getRoot(), "test.queue");
+    }
+
+    @Test
+    public void reopenDropsTornLastRecord() throws IOException {
+        OutboundQueue queue = new OutboundQueue(file, 1 << 20);
+        queue.append(TOPIC, payload(1));
+        queue.append(TOPIC, payload(2));
+        queue.append(TOPIC, payload(3));
+        // Mất nguồn giữa lúc ghi bản ghi cuối; tạo OutboundQueue mới trên cùng file tương đương khởi động lại
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 5);
+        }
+
+        queue = new OutboundQueue(file, 1 << 20);
+        assertEquals(2, queue.size());
+        assertMessages(queue, 1, 2);
+        // Bản ghi mới được ghi lên phần hỏng đã cắt bỏ và đọc lại được; seq của bản ghi chưa từng nằm
+        // trọn trên đĩa được dùng lại
+        assertEquals(3, queue.append(TOPIC, payload(3)));
+
+        queue = new OutboundQueue(file, 1 << 20);
+        assertEquals(3, queue.size());
+        assertMessages(queue, 1, 2, 3);
+    }
+
+    @Test
+    public void reopenDropsRecordWithBadCrc() throws IOException {
+        OutboundQueue queue = new OutboundQueue(file, 1 << 20);
+        queue.append(TOPIC, payload(1));
+        queue.append(TOPIC, payload(2));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length() - 6);
+            raf.write(0xFF);
+        }
+
+        queue = new OutboundQueue(file, 1 << 20);
+        assertEquals(1, queue.size());
+        assertMessages(queue, 1);
+    }
+
+    @Test
+    public void outOfOrderAcksSurviveRestart() throws IOException {
+        OutboundQueue queue = new OutboundQueue(file, 1 << 20);
+        for (int i = 1; i <= 5; i++) {
+            queue.append(TOPIC, payload(i));
+        }
+        for (int i = 1; i <= 5; i++) {
+            assertEquals(i, queue.nextUnsent(10).seq);
+        }
+        queue.ack(1);
+        queue.ack(3);
+        queue.ack(5);
+
+        queue = new OutboundQueue(file, 1 << 20);
+        assertEquals(2, queue.size());
+        assertMessages(queue, 2, 4);
+    }
+
+    @Test
+    public void makeRoomDropsOnlyPendingRecords() throws IOException {
+        int maxBytes = 16 * 1024;
+        OutboundQueue queue = new OutboundQueue(file, maxBytes);
+        long first = queue.append(TOPIC, new byte[1000]);
+        long second = queue.append(TOPIC, new byte[1000]);
+        long third = queue.append(TOPIC, new byte[1000]);
+        assertEquals(first, queue.nextUnsent(2).seq);
+        assertEquals(second, queue.nextUnsent(2).seq);
+        // Lấp đầy hàng đợi để buộc bỏ các bản ghi cũ nhất
+        for (int i = 0; i < 40; i++) {
+            assertTrue(queue.append(TOPIC, new byte[1000]) > 0);
+        }
+        long dropped = queue.getDroppedCount();
+        assertTrue(dropped > 0);
+        assertTrue(file.length() <= maxBytes);
+        assertEquals(43 - dropped, queue.size());
+
+        // Hai message đang gửi không bị bỏ; message chờ gửi cũ nhất (third) thì bị bỏ
+        assertEquals(2, queue.getInFlightCount());
+        queue.releaseInFlight();
+        assertEquals(first, queue.nextUnsent(10).seq);
+        assertEquals(second, queue.nextUnsent(10).seq);
+        assertEquals(third + dropped, queue.nextUnsent(10).seq);
+
+        // Bản ghi bị bỏ cũng không quay lại sau khi khởi động lại
+        queue = new OutboundQueue(file, maxBytes);
+        assertEquals(43 - dropped, queue.size());
+        assertEquals(first, queue.nextUnsent(10).seq);
+        assertEquals(second, queue.nextUnsent(10).seq);
+        assertEquals(third + dropped, queue.nextUnsent(10).seq);
+    }
+
+    @Test
+    public void seqStaysMonotonicAfterTruncate() throws IOException {
+        OutboundQueue queue = new OutboundQueue(file, 1 << 20);
+        assertEquals(1, queue.append(TOPIC, payload(1)));
+        assertEquals(2, queue.append(TOPIC, payload(2)));
+        queue.ack(queue.nextUnsent(10).seq);
+        queue.ack(queue.nextUnsent(10).seq);
+        assertEquals(0, queue.size());
+        assertEquals(3, queue.append(TOPIC, payload(3)));
+        queue.ack(queue.nextUnsent(10).seq);
+
+        queue = new OutboundQueue(file, 1 << 20);
+        assertEquals(0, queue.size());
+        assertEquals(4, queue.append(TOPIC, payload(4)));
+    }
+
+    private static byte[] payload(int n) {
+        return ("{\"n\":" + n + "}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Lấy hết message chờ gửi và so seq cùng nội dung
+    private static void assertMessages(OutboundQueue queue, int... expected) {
+        List<Long> seqs = new ArrayList<>();
+        OutboundQueue.Message message;
+        while ((message = queue.nextUnsent(Integer.MAX_VALUE)) != null) {
+            seqs.add(message.seq);
+            assertEquals(TOPIC, message.topic);
+            assertArrayEquals(payload((int) message.seq), message.payload);
+        }
+        assertEquals(expected.length, seqs.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], (long) seqs.get(i));
+        }
+    }
+}